@@ -0,0 +1,150 @@
+import benchmarks.Workloads;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The code each benchmark measures, kept next to the server classes it calls.
+public final class BenchmarkWorkloads {
+
+  private BenchmarkWorkloads() {
+  }
+
+  // Bundled summary data plus generated Kaggle-sized details, since those are not bundled
+  static DataSnapshot bundledSnapshot(ResponseCache.Mode cacheMode) throws IOException {
+    // The generated directory only holds the detail file; the summary files come from the resources
+    ComparisonServer.useDataDirectory(SyntheticData.generate(0, 1), false);
+    return new DataSnapshot(1,
+            ComparisonServer.loadSalaryTable("salary_data.csv"),
+            ComparisonServer.loadCSV("clean_cost_of_living_in_the_us_updated.csv"),
+            ComparisonServer.loadDetailedCSV("cost_of_living_in_the_us_updated.csv"),
+            cacheMode);
+  }
+
+  public static final class CsvLoad implements Workloads.CsvLoad {
+    @Override
+    public void setUp(int scale) throws IOException {
+      // scale 1 reads the bundled resources themselves
+      Path directory = scale == 1 ? null : SyntheticData.generate(scale, 0);
+      ComparisonServer.useDataDirectory(directory, false);
+    }
+
+    @Override
+    public Object salaryData() {
+      return ComparisonServer.loadSalaryTable("salary_data.csv");
+    }
+
+    @Override
+    public Object cleanSalaryData() {
+      return ComparisonServer.loadCSV("clean_salary_data.csv");
+    }
+
+    @Override
+    public Object stateCosts() {
+      return ComparisonServer.loadCSV("clean_cost_of_living_in_the_us_updated.csv");
+    }
+  }
+
+  public static final class DetailLoad implements Workloads.DetailLoad {
+    @Override
+    public void setUp(int detailScale) throws IOException {
+      ComparisonServer.useDataDirectory(SyntheticData.generate(0, detailScale), false);
+    }
+
+    @Override
+    public Object detailedCosts() {
+      return ComparisonServer.loadDetailedCSV("cost_of_living_in_the_us_updated.csv");
+    }
+  }
+
+  public static final class Compare implements Workloads.Compare {
+    private ComparisonEngine engine;
+    private String[] states;
+    private String[] countries;
+    private List<String> tenStates;
+    private List<String> tenCountries;
+
+    @Override
+    public void setUp() throws IOException {
+      DataSnapshot data = bundledSnapshot(ResponseCache.Mode.OFF);
+      engine = data.engine();
+      states = data.stateToCost().keySet().toArray(new String[0]);
+      countries = data.countryToSalary().keySet().toArray(new String[0]);
+      tenStates = Arrays.asList(states).subList(0, 10);
+      tenCountries = Arrays.asList(countries).subList(0, 10);
+    }
+
+    // Name resolution plus the ratio read, as POST /compare does it
+    @Override
+    public double singleLookup(int i) {
+      int stateId = engine.stateId(states[Math.floorMod(i, states.length)]);
+      int countryId = engine.countryId(countries[Math.floorMod(i, countries.length)]);
+      return engine.ratio(SalaryStatistic.DEFAULT, stateId, countryId);
+    }
+
+    @Override
+    public void batchTenByTen(Writer out) throws IOException {
+      BatchComparison.of(engine, SalaryStatistic.DEFAULT, tenStates, tenCountries, Integer.MAX_VALUE).writeJson(out);
+    }
+
+    @Override
+    public void batchAll(Writer out) throws IOException {
+      BatchComparison.of(engine, SalaryStatistic.DEFAULT, "all", "all", Integer.MAX_VALUE).writeJson(out);
+    }
+  }
+
+  public static final class Serialization implements Workloads.Serialization {
+    private static final Gson SHARED_GSON = new Gson();
+
+    private DataSnapshot data;
+    private ComparisonEngine engine;
+    private int stateId;
+    private int countryId;
+
+    @Override
+    public void setUp() throws IOException {
+      data = bundledSnapshot(ResponseCache.Mode.EAGER);
+      engine = data.engine();
+      stateId = engine.stateId("TX");
+      countryId = engine.countryId("Canada");
+    }
+
+    // The response map POST /compare used to build for Gson
+    private Map<String, Object> responseMap() {
+      String state = engine.state(stateId);
+      Map<String, Object> response = new HashMap<>();
+      response.put("state", state);
+      response.put("nationality", engine.country(countryId));
+      response.put("cost", engine.cost(stateId));
+      response.put("salary", engine.salary(SalaryStatistic.DEFAULT, countryId));
+      response.put("costBreakdown", data.stateCostDetails().get(state));
+      response.put("ratio", engine.ratio(SalaryStatistic.DEFAULT, stateId, countryId));
+      return response;
+    }
+
+    @Override
+    public String freshGson() {
+      return new Gson().toJson(responseMap());
+    }
+
+    @Override
+    public String sharedGson() {
+      return SHARED_GSON.toJson(responseMap());
+    }
+
+    @Override
+    public String engineJson() {
+      return engine.toJson(SalaryStatistic.DEFAULT, stateId, countryId);
+    }
+
+    @Override
+    public byte[] cachedBytes() {
+      return data.responseCache().get(SalaryStatistic.DEFAULT, stateId, countryId);
+    }
+  }
+}
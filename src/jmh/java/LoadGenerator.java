@@ -0,0 +1,357 @@
+import com.google.gson.Gson;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-model load test: requests go out at a fixed arrival rate whether or not earlier ones
+// have finished, and every latency is measured from the moment the request was due rather
+// than when it was actually sent. A stalled server therefore cannot hide the queueing it
+// causes (coordinated omission). Starts ComparisonServer on a free localhost port unless
+// LOAD_TARGET points at a running one; in-process runs share the CPU with the generator.
+//
+//   mvn -Pbenchmarks package && java -cp target/benchmarks.jar LoadGenerator
+//
+//   LOAD_TARGET           base URL of a running server (default: start one in this JVM)
+//   LOAD_RATE             requests per second (500)
+//   LOAD_WARMUP_S         seconds sent but not measured (5)
+//   LOAD_DURATION_S       measured seconds (30)
+//   LOAD_MIX              weights per request type (get=40,post=50,static=10)
+//   LOAD_THREADS          HTTP client threads (4)
+//   LOAD_MAX_OUTSTANDING  requests in flight before new ones count as failed (10000)
+//   LOAD_MAX_P99_MS       exit with status 1 when the overall p99 is higher (0 = no gate)
+//   LOAD_MAX_ERROR_RATE   exit with status 1 when more requests fail (0.01)
+//   LOAD_REPLAY           query log directory (QUERY_LOG_DIR); its /compare requests are sent
+//                         in the logged order, at LOAD_RATE, instead of random pairs; the get
+//                         and post weights then only set how often /compare is picked
+public final class LoadGenerator {
+
+  private enum Kind { GET, POST, STATIC }
+
+  private static final int MAX_REPLAY = 1_000_000;
+  private static final Gson GSON = new Gson();
+
+  private static final class KindStats {
+    final LatencyHistogram response = new LatencyHistogram(); // from the time the request was due
+    final LatencyHistogram service = new LatencyHistogram();  // from the time it was sent
+    final LongAdder sent = new LongAdder();
+    final LongAdder ok = new LongAdder();
+    final LongAdder tooMany = new LongAdder();
+    final LongAdder errors = new LongAdder(); // other 4xx / 5xx
+    final LongAdder failed = new LongAdder(); // no response, or never sent
+
+    long unsuccessful() {
+      return tooMany.sum() + errors.sum() + failed.sum();
+    }
+  }
+
+  private LoadGenerator() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    double rate = Double.parseDouble(ComparisonServer.setting("LOAD_RATE", "500"));
+    long warmupNanos = (long) (Double.parseDouble(ComparisonServer.setting("LOAD_WARMUP_S", "5")) * 1e9);
+    long durationNanos = (long) (Double.parseDouble(ComparisonServer.setting("LOAD_DURATION_S", "30")) * 1e9);
+    String mix = ComparisonServer.setting("LOAD_MIX", "get=40,post=50,static=10");
+    int threads = Integer.parseInt(ComparisonServer.setting("LOAD_THREADS", "4"));
+    int maxOutstanding = Integer.parseInt(ComparisonServer.setting("LOAD_MAX_OUTSTANDING", "10000"));
+    double maxP99Millis = Double.parseDouble(ComparisonServer.setting("LOAD_MAX_P99_MS", "0"));
+    double maxErrorRate = Double.parseDouble(ComparisonServer.setting("LOAD_MAX_ERROR_RATE", "0.01"));
+
+    String target = ComparisonServer.setting("LOAD_TARGET", "");
+    boolean inProcess = target.isBlank();
+    if (inProcess) {
+      target = startServer();
+    }
+
+    int[] weights = parseMix(mix);
+    List<HttpRequest[]> requests = buildRequests(target);
+    String replayDirectory = ComparisonServer.setting("LOAD_REPLAY", "");
+    List<Replayed> replay = replayDirectory.isBlank() ? null : loadReplay(Paths.get(replayDirectory), target);
+
+    ExecutorService clientThreads = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "load-client");
+      thread.setDaemon(true);
+      return thread;
+    });
+    HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(clientThreads)
+            .build();
+
+    System.out.printf("Load test: %.0f req/s for %.0f s (+%.0f s warm-up) against %s, mix %s%n",
+            rate, durationNanos / 1e9, warmupNanos / 1e9, target, mix);
+
+    KindStats[] stats = new KindStats[Kind.values().length];
+    for (int k = 0; k < stats.length; k++) stats[k] = new KindStats();
+    KindStats total = new KindStats();
+    AtomicInteger outstanding = new AtomicInteger();
+    SplittableRandom random = new SplittableRandom(42);
+
+    long start = System.nanoTime();
+    long measureFrom = start + warmupNanos;
+    long end = measureFrom + durationNanos;
+    double intervalNanos = 1e9 / rate;
+
+    int replayed = 0;
+    for (long i = 0; ; i++) {
+      long due = start + (long) (i * intervalNanos);
+      if (due - end >= 0) break;
+      long delay = due - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      }
+
+      Kind kind = pick(weights, random);
+      HttpRequest request;
+      if (replay != null && kind != Kind.STATIC) {
+        Replayed next = replay.get(Math.floorMod(replayed++, replay.size()));
+        kind = next.kind;
+        request = next.request;
+      } else {
+        HttpRequest[] pool = requests.get(kind.ordinal());
+        request = pool[random.nextInt(pool.length)];
+      }
+      boolean measured = due - measureFrom >= 0;
+      KindStats kindStats = stats[kind.ordinal()];
+      if (measured) {
+        kindStats.sent.increment();
+        total.sent.increment();
+      }
+
+      if (outstanding.get() >= maxOutstanding) {
+        if (measured) {
+          kindStats.failed.increment();
+          total.failed.increment();
+        }
+        continue;
+      }
+      outstanding.incrementAndGet();
+      long sent = System.nanoTime();
+      client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+        long done = System.nanoTime();
+        outstanding.decrementAndGet();
+        if (measured) {
+          record(kindStats, due, sent, done, response, error);
+          record(total, due, sent, done, response, error);
+        }
+      });
+    }
+
+    // Let the last requests finish; whatever is still out after that counts as failed
+    long drainUntil = System.nanoTime() + 30_000_000_000L;
+    while (outstanding.get() > 0 && System.nanoTime() - drainUntil < 0) {
+      Thread.sleep(10);
+    }
+    long elapsedNanos = System.nanoTime() - measureFrom;
+
+    boolean passed = report(stats, total, elapsedNanos, rate, outstanding.get(), maxP99Millis, maxErrorRate);
+    if (inProcess) {
+      Spark.stop();
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  private static void record(KindStats stats, long due, long sent, long done,
+                             HttpResponse<Void> response, Throwable error) {
+    if (error != null) {
+      stats.failed.increment();
+      return;
+    }
+    stats.response.recordNanos(done - due);
+    stats.service.recordNanos(done - sent);
+    int status = response.statusCode();
+    if (status == 429) {
+      stats.tooMany.increment();
+    } else if (status >= 400) {
+      stats.errors.increment();
+    } else {
+      stats.ok.increment();
+    }
+  }
+
+  // Boots the server in this JVM on a free port and waits until it accepts requests
+  private static String startServer() throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    System.setProperty("PORT", String.valueOf(port));
+    ComparisonServer.main(new String[0]);
+    Spark.awaitInitialization();
+    return "http://127.0.0.1:" + port;
+  }
+
+  // "get=40,post=50,static=10" -> weights in Kind order; unnamed kinds get 0
+  private static int[] parseMix(String mix) {
+    int[] weights = new int[Kind.values().length];
+    for (String part : mix.split(",")) {
+      String[] pair = part.split("=");
+      if (pair.length != 2) {
+        throw new IllegalArgumentException("LOAD_MIX entries look like get=40: " + part);
+      }
+      weights[Kind.valueOf(pair[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(pair[1].trim());
+    }
+    if (Arrays.stream(weights).sum() <= 0) {
+      throw new IllegalArgumentException("LOAD_MIX needs at least one positive weight: " + mix);
+    }
+    return weights;
+  }
+
+  private static Kind pick(int[] weights, SplittableRandom random) {
+    int total = 0;
+    for (int weight : weights) total += weight;
+    int n = random.nextInt(total);
+    for (Kind kind : Kind.values()) {
+      n -= weights[kind.ordinal()];
+      if (n < 0) return kind;
+    }
+    return Kind.GET;
+  }
+
+  // Requests over the states and nationalities the server knows, built once up front. For a
+  // remote target those come from the bundled data.
+  private static List<HttpRequest[]> buildRequests(String target) {
+    List<String> states = new ArrayList<>();
+    List<String> nationalities = new ArrayList<>();
+    DataSnapshot data = ComparisonServer.snapshot();
+    if (data != null) {
+      for (int s = 0; s < data.engine().stateCount(); s++) states.add(data.engine().state(s));
+      for (int c = 0; c < data.engine().countryCount(); c++) nationalities.add(data.engine().country(c));
+    } else {
+      ComparisonServer.useDataDirectory(null, false);
+      states.addAll(ComparisonServer.loadCSV("clean_cost_of_living_in_the_us_updated.csv").keySet());
+      SalaryTable salaries = ComparisonServer.loadSalaryTable("salary_data.csv");
+      for (int c = 0; c < salaries.size(); c++) nationalities.add(salaries.country(c));
+    }
+    Collections.sort(states);
+
+    SplittableRandom random = new SplittableRandom(7);
+    int size = 1024;
+    HttpRequest[] gets = new HttpRequest[size];
+    HttpRequest[] posts = new HttpRequest[size];
+    for (int i = 0; i < size; i++) {
+      String state = states.get(random.nextInt(states.size()));
+      String nationality = nationalities.get(random.nextInt(nationalities.size()));
+      gets[i] = HttpRequest.newBuilder(URI.create(target + "/compare?state=" + encode(state)
+              + "&nationality=" + encode(nationality))).GET().build();
+      String body = "{\"state\":\"" + state + "\",\"nationality\":\"" + nationality.replace("\"", "\\\"") + "\"}";
+      posts[i] = HttpRequest.newBuilder(URI.create(target + "/compare"))
+              .header("Content-Type", "application/json; charset=utf-8")
+              .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build();
+    }
+    HttpRequest[] statics = {
+            HttpRequest.newBuilder(URI.create(target + "/WebPage.html"))
+                    .header("Accept-Encoding", "gzip").GET().build(),
+            HttpRequest.newBuilder(URI.create(target + "/Blank_US_Map_(states_only).svg"))
+                    .header("Accept-Encoding", "gzip").GET().build()
+    };
+    return List.of(gets, posts, statics);
+  }
+
+  private static final class Replayed {
+    final Kind kind;
+    final HttpRequest request;
+
+    Replayed(Kind kind, HttpRequest request) {
+      this.kind = kind;
+      this.request = request;
+    }
+  }
+
+  // The logged /compare requests, oldest first, at most MAX_REPLAY of them
+  private static List<Replayed> loadReplay(Path directory, String target) throws IOException {
+    List<Replayed> replay = new ArrayList<>();
+    for (Path file : QueryLog.files(directory)) {
+      QueryLog.read(file, (millis, kind, statistic, state, nationality, family) -> {
+        if (replay.size() >= MAX_REPLAY) return;
+        if (kind == QueryLog.Kind.GET) {
+          replay.add(new Replayed(Kind.GET, HttpRequest.newBuilder(URI.create(target + "/compare?state="
+                  + encode(state) + "&nationality=" + encode(nationality) + "&statistic=" + statistic.key()
+                  + (family != null ? "&family=" + encode(family) : ""))).GET().build()));
+        } else {
+          Map<String, String> body = new LinkedHashMap<>();
+          body.put("state", state);
+          body.put("nationality", nationality);
+          body.put("statistic", statistic.key());
+          if (family != null) body.put("family", family);
+          replay.add(new Replayed(Kind.POST, HttpRequest.newBuilder(URI.create(target + "/compare"))
+                  .header("Content-Type", "application/json; charset=utf-8")
+                  .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(body), StandardCharsets.UTF_8)).build()));
+        }
+      });
+    }
+    if (replay.isEmpty()) {
+      throw new IllegalArgumentException("LOAD_REPLAY has no logged queries: " + directory);
+    }
+    System.out.printf("Replaying %d logged queries from %s%n", replay.size(), directory);
+    return replay;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  // Prints the per-type table and returns whether the gates passed
+  private static boolean report(KindStats[] stats, KindStats total, long elapsedNanos, double rate,
+                                int unfinished, double maxP99Millis, double maxErrorRate) {
+    System.out.printf("%n%-8s %9s %9s %7s %7s %7s %9s %9s %9s %9s%n",
+            "type", "sent", "ok", "429", "errors", "failed", "p50 ms", "p99 ms", "p999 ms", "max ms");
+    for (Kind kind : Kind.values()) {
+      if (stats[kind.ordinal()].sent.sum() > 0) {
+        printRow(kind.name().toLowerCase(), stats[kind.ordinal()]);
+      }
+    }
+    printRow("all", total);
+
+    long sent = total.sent.sum();
+    long unsuccessful = total.unsuccessful() + unfinished;
+    double errorRate = sent == 0 ? 0 : (double) unsuccessful / sent;
+    double p99Millis = total.response.snapshot().quantileMicros(0.99) / 1e3;
+
+    System.out.printf("%nThroughput: %.1f req/s completed successfully (target %.0f req/s)%n",
+            total.ok.sum() / (elapsedNanos / 1e9), rate);
+    System.out.printf("p99: %.2f ms from the intended send time, %.2f ms from the actual send time%n",
+            p99Millis, total.service.snapshot().quantileMicros(0.99) / 1e3);
+    System.out.printf("Unsuccessful: %d of %d (%.2f%%)%s%n", unsuccessful, sent, errorRate * 100,
+            unfinished > 0 ? ", " + unfinished + " never finished" : "");
+
+    boolean passed = true;
+    if (maxP99Millis > 0 && p99Millis > maxP99Millis) {
+      System.out.printf("❌ p99 %.2f ms is over LOAD_MAX_P99_MS=%.2f%n", p99Millis, maxP99Millis);
+      passed = false;
+    }
+    if (errorRate > maxErrorRate) {
+      System.out.printf("❌ Error rate %.4f is over LOAD_MAX_ERROR_RATE=%.4f%n", errorRate, maxErrorRate);
+      passed = false;
+    }
+    if (passed) {
+      System.out.println("✅ Load test passed");
+    }
+    return passed;
+  }
+
+  private static void printRow(String label, KindStats s) {
+    LatencyHistogram.Snapshot latency = s.response.snapshot();
+    System.out.printf("%-8s %9d %9d %7d %7d %7d %9.2f %9.2f %9.2f %9.2f%n",
+            label, s.sent.sum(), s.ok.sum(), s.tooMany.sum(), s.errors.sum(), s.failed.sum(),
+            latency.quantileMicros(0.5) / 1e3, latency.quantileMicros(0.99) / 1e3,
+            latency.quantileMicros(0.999) / 1e3, latency.quantileMicros(1.0) / 1e3);
+  }
+}
@@ -0,0 +1,109 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+// Writes CSVs with the same layout as the bundled resources, scaled up for ingestion benchmarks.
+// Generation is seeded so every run parses identical files.
+final class SyntheticData {
+
+  // Row counts of the bundled files, and of the full Kaggle cost-of-living dataset
+  static final int SALARY_ROWS = 221;
+  static final int STATE_ROWS = 51;
+  static final int DETAIL_ROWS = 31_430;
+
+  private static final String[] FAMILIES = {
+          "1p0c", "1p1c", "1p2c", "1p3c", "1p4c", "2p0c", "2p1c", "2p2c", "2p3c", "2p4c"
+  };
+
+  private SyntheticData() {
+  }
+
+  // Creates a directory the server loaders can read through ComparisonServer.useDataDirectory.
+  // A scale of 0 leaves those files out, so the loaders fall back to the bundled resources.
+  static Path generate(int scale, int detailScale) throws IOException {
+    Path directory = Files.createTempDirectory("maddata-bench");
+    directory.toFile().deleteOnExit();
+    SplittableRandom random = new SplittableRandom(42);
+
+    if (scale > 0) {
+      writeSalaries(directory, SALARY_ROWS * scale, random);
+      writeStateCosts(directory, STATE_ROWS * scale, random);
+    }
+    if (detailScale > 0) {
+      writeDetails(directory, DETAIL_ROWS * detailScale, random);
+    }
+    return directory;
+  }
+
+  static String country(int i) {
+    return "Country " + i;
+  }
+
+  static String state(int i) {
+    // Two letters for the first 676 states, like the real codes, then a numeric suffix
+    String code = "" + (char) ('A' + (i / 26) % 26) + (char) ('A' + i % 26);
+    return i < 676 ? code : code + (i / 676);
+  }
+
+  private static void writeSalaries(Path directory, int rows, SplittableRandom random) throws IOException {
+    try (BufferedWriter raw = open(directory, "salary_data.csv");
+         BufferedWriter clean = open(directory, "clean_salary_data.csv")) {
+      raw.write("country_name,continent_name,wage_span,median_salary,average_salary,lowest_salary,highest_salary\n");
+      clean.write("country_name,YearlySalary\n");
+      for (int i = 0; i < rows; i++) {
+        double median = 200 + random.nextDouble() * 7000;
+        raw.write(country(i) + ",Europe,Monthly," + round(median) + "," + round(median * 1.15) + ","
+                + round(median * 0.28) + "," + round(median * 5.2) + "\n");
+        clean.write(country(i) + "," + round(median * 12) + "\n");
+      }
+    }
+  }
+
+  private static void writeStateCosts(Path directory, int rows, SplittableRandom random) throws IOException {
+    try (BufferedWriter out = open(directory, "clean_cost_of_living_in_the_us_updated.csv")) {
+      out.write("\"State\",\"AverageCost\"\n");
+      for (int i = 0; i < rows; i++) {
+        out.write("\"" + state(i) + "\",\"" + (55000 + random.nextDouble() * 50000) + "\"\n");
+      }
+    }
+  }
+
+  private static void writeDetails(Path directory, int rows, SplittableRandom random) throws IOException {
+    try (BufferedWriter out = open(directory, "cost_of_living_in_the_us_updated.csv")) {
+      out.write("case_id,state,isMetro,areaname,county,family_member_count,housing_cost,food_cost,"
+              + "transportation_cost,healthcare_cost,other_necessities_cost,childcare_cost,taxes,total_cost,"
+              + "median_family_income\n");
+      for (int i = 0; i < rows; i++) {
+        String state = state(random.nextInt(STATE_ROWS));
+        int county = i / FAMILIES.length;
+        boolean metro = county % 3 != 0;
+        String area = metro ? "\"Metro " + county / 7 + ", " + state + " MSA\"" : "\"County " + county + ", " + state + "\"";
+
+        StringBuilder row = new StringBuilder(160);
+        row.append(i + 1).append(',').append(state).append(',').append(metro ? "True" : "False").append(',')
+                .append(area).append(",County ").append(county).append(',').append(FAMILIES[i % FAMILIES.length]);
+        double total = 0;
+        for (int c = 0; c < 7; c++) {
+          double value = round(2000 + random.nextDouble() * 20000);
+          total += value;
+          row.append(',').append(value);
+        }
+        row.append(',').append(round(total)).append(',').append(round(40000 + random.nextDouble() * 80000)).append('\n');
+        out.write(row.toString());
+      }
+    }
+  }
+
+  private static BufferedWriter open(Path directory, String name) throws IOException {
+    Path file = directory.resolve(name);
+    file.toFile().deleteOnExit();
+    return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100) / 100.0;
+  }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+// Single and batch comparisons against the bundled data, excluding HTTP.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompareBenchmark {
+
+  private final Workloads.Compare workload = Workloads.create(Workloads.Compare.class);
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload.setUp();
+  }
+
+  @Benchmark
+  public double singleLookup() {
+    return workload.singleLookup(next++);
+  }
+
+  @Benchmark
+  public void batchTenByTen() throws IOException {
+    workload.batchTenByTen(Writer.nullWriter());
+  }
+
+  @Benchmark
+  public void batchAll() throws IOException {
+    workload.batchAll(Writer.nullWriter());
+  }
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Ingestion throughput of the summary CSV loaders. scale 1 reads the bundled resources,
+// larger scales read generated files that many times bigger.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CsvLoadBenchmark {
+
+  @Param({"1", "10", "100"})
+  int scale;
+
+  private final Workloads.CsvLoad workload = Workloads.create(Workloads.CsvLoad.class);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload.setUp(scale);
+  }
+
+  @Benchmark
+  public Object salaryData() {
+    return workload.salaryData();
+  }
+
+  @Benchmark
+  public Object cleanSalaryData() {
+    return workload.cleanSalaryData();
+  }
+
+  @Benchmark
+  public Object stateCosts() {
+    return workload.stateCosts();
+  }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Ingestion throughput of the detailed cost-of-living loader on generated data.
+// detailScale 1 is the size of the full Kaggle dataset (~31k rows).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DetailCsvLoadBenchmark {
+
+  @Param({"1", "10"})
+  int detailScale;
+
+  private final Workloads.DetailLoad workload = Workloads.create(Workloads.DetailLoad.class);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload.setUp(detailScale);
+  }
+
+  @Benchmark
+  public Object detailedCosts() {
+    return workload.detailedCosts();
+  }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Rendering one POST /compare response: a Gson per request as the handler used to do,
+// a shared Gson, the engine's hand-written JSON and the pre-serialized response cache.
+// Run with -prof gc to compare allocation per response.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+
+  private final Workloads.Serialization workload = Workloads.create(Workloads.Serialization.class);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workload.setUp();
+  }
+
+  @Benchmark
+  public String freshGson() {
+    return workload.freshGson();
+  }
+
+  @Benchmark
+  public String sharedGson() {
+    return workload.sharedGson();
+  }
+
+  @Benchmark
+  public String engineJson() {
+    return workload.engineJson();
+  }
+
+  @Benchmark
+  public byte[] cachedBytes() {
+    return workload.cachedBytes();
+  }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// JMH refuses benchmark classes in the default package, and a packaged class cannot import
+// the server classes that live there. Each benchmark therefore drives a default-package
+// workload (BenchmarkWorkloads) through one of these interfaces; the call stays monomorphic.
+public final class Workloads {
+
+  public interface CsvLoad {
+    void setUp(int scale) throws IOException;
+
+    Object salaryData();
+
+    Object cleanSalaryData();
+
+    Object stateCosts();
+  }
+
+  public interface DetailLoad {
+    void setUp(int detailScale) throws IOException;
+
+    Object detailedCosts();
+  }
+
+  public interface Compare {
+    void setUp() throws IOException;
+
+    // i is a running counter and wraps around to negative values on long runs
+    double singleLookup(int i);
+
+    void batchTenByTen(Writer out) throws IOException;
+
+    void batchAll(Writer out) throws IOException;
+  }
+
+  public interface Serialization {
+    void setUp() throws IOException;
+
+    String freshGson();
+
+    String sharedGson();
+
+    String engineJson();
+
+    byte[] cachedBytes();
+  }
+
+  private Workloads() {
+  }
+
+  static <T> T create(Class<T> type) {
+    String name = "BenchmarkWorkloads$" + type.getSimpleName();
+    try {
+      return type.cast(Class.forName(name).getDeclaredConstructor().newInstance());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Missing benchmark workload " + name, e);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+import com.google.gson.Gson;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sheds load on /compare, /compare/batch and /simulate before the handler runs or the body
+// is parsed: a global cap on requests in flight plus a per-client rate limit, both answered
+// with a 429.
+// The rate limit is GCRA (a token bucket kept as one timestamp), so each client is a single
+// AtomicLong in a ConcurrentHashMap and a check is one CAS; clients whose bucket has
+// refilled are swept out periodically, which forgets nothing.
+//   ADMISSION_MAX_IN_FLIGHT     requests handled at once, 0 = unlimited
+//   RATE_LIMIT_PER_SECOND       sustained requests per client, 0 = off
+//   RATE_LIMIT_BURST            requests a client may send at once
+//   RATE_LIMIT_TRUST_FORWARDED  key clients by X-Forwarded-For (only behind a proxy)
+//   RATE_LIMIT_PROXY_HOPS       proxies in front of the server that append to X-Forwarded-For
+// Proxies such as Heroku's router append the address they saw to the right of whatever the
+// client sent, so the client is the RATE_LIMIT_PROXY_HOPS-th entry from the right. Entries
+// further left are made up by the client and would give it a fresh bucket per request.
+// The limits can be changed at runtime with POST /server/admission and ADMIN_TOKEN.
+public final class AdmissionControl {
+
+  private static final String ADMITTED_ATTRIBUTE = "admission.admitted";
+  private static final long SWEEP_INTERVAL_NANOS = 10_000_000_000L;
+  private static final Gson GSON = new Gson();
+
+  private static final class Limits {
+    final int maxInFlight;
+    final double ratePerSecond;
+    final int burst;
+    final long emissionNanos;  // time one request "costs"
+    final long toleranceNanos; // how far ahead of the clock a client may get
+
+    Limits(int maxInFlight, double ratePerSecond, int burst) {
+      this.maxInFlight = maxInFlight;
+      this.ratePerSecond = ratePerSecond;
+      this.burst = burst;
+      this.emissionNanos = ratePerSecond > 0 ? (long) (1e9 / ratePerSecond) : 0;
+      this.toleranceNanos = emissionNanos * (burst - 1);
+    }
+  }
+
+  private static volatile Limits limits = new Limits(0, 0, 1);
+  private static volatile int proxyHops; // 0 = ignore X-Forwarded-For
+
+  private static final AtomicInteger inFlight = new AtomicInteger();
+  private static final Map<String, AtomicLong> clients = new ConcurrentHashMap<>(); // client -> theoretical arrival time
+  private static final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+  private static final LongAdder admitted = new LongAdder();
+  private static final LongAdder rejectedInFlight = new LongAdder();
+  private static final LongAdder rejectedRate = new LongAdder();
+
+  private AdmissionControl() {
+  }
+
+  // Call after Metrics.install(), so rejected requests are still counted per route
+  public static void install(String... paths) {
+    limits = new Limits(
+            Integer.parseInt(ComparisonServer.setting("ADMISSION_MAX_IN_FLIGHT", "0")),
+            Double.parseDouble(ComparisonServer.setting("RATE_LIMIT_PER_SECOND", "0")),
+            Integer.parseInt(ComparisonServer.setting("RATE_LIMIT_BURST", "20")));
+    proxyHops = Boolean.parseBoolean(ComparisonServer.setting("RATE_LIMIT_TRUST_FORWARDED", "false"))
+            ? Math.max(1, Integer.parseInt(ComparisonServer.setting("RATE_LIMIT_PROXY_HOPS", "1"))) : 0;
+
+    for (String path : paths) {
+      Spark.before(path, AdmissionControl::admit);
+    }
+    Spark.afterAfter((req, res) -> {
+      if (req.attribute(ADMITTED_ATTRIBUTE) != null) {
+        inFlight.decrementAndGet();
+      }
+    });
+  }
+
+  private static void admit(Request req, Response res) {
+    if (Startup.isWarmUpRequest(req)) {
+      return;
+    }
+    Limits current = limits;
+    if (current.emissionNanos > 0) {
+      long waitNanos = rateLimit(clientKey(req), current);
+      if (waitNanos > 0) {
+        rejectedRate.increment();
+        reject(res, "Rate limit exceeded, slow down!", waitNanos);
+      }
+    }
+
+    if (current.maxInFlight > 0) {
+      if (inFlight.incrementAndGet() > current.maxInFlight) {
+        inFlight.decrementAndGet();
+        rejectedInFlight.increment();
+        reject(res, "Server busy, try again shortly!", 0);
+      }
+    } else {
+      inFlight.incrementAndGet();
+    }
+    req.attribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+    admitted.increment();
+  }
+
+  private static void reject(Response res, String message, long waitNanos) {
+    res.type("application/json");
+    res.header("Retry-After", String.valueOf(Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L)));
+    Spark.halt(429, GSON.toJson(Map.of("error", message)));
+  }
+
+  // The proxyHops-th X-Forwarded-For entry from the right, or the leftmost when there are
+  // fewer, since then every entry was added by a trusted proxy
+  private static String clientKey(Request req) {
+    return proxyHops > 0 ? forwardedClient(req.headers("X-Forwarded-For"), proxyHops, req.ip()) : req.ip();
+  }
+
+  static String forwardedClient(String forwarded, int hops, String fallback) {
+    if (forwarded == null) {
+      return fallback;
+    }
+    int end = forwarded.length();
+    for (int hop = 1; ; hop++) {
+      int comma = forwarded.lastIndexOf(',', end - 1);
+      String entry = forwarded.substring(comma + 1, end).trim();
+      if (hop == hops || comma < 0) {
+        return entry.isEmpty() ? fallback : entry;
+      }
+      end = comma;
+    }
+  }
+
+  // 0 when the request is allowed, otherwise how long the client has to wait
+  private static long rateLimit(String client, Limits current) {
+    long now = System.nanoTime();
+    sweep(now);
+    AtomicLong cell = clients.computeIfAbsent(client, k -> new AtomicLong(now));
+    while (true) {
+      long tat = cell.get();
+      long wait = tat - current.toleranceNanos - now;
+      if (wait > 0) {
+        return wait;
+      }
+      long next = (tat - now > 0 ? tat : now) + current.emissionNanos;
+      if (cell.compareAndSet(tat, next)) {
+        return 0;
+      }
+    }
+  }
+
+  // A client whose arrival time has passed is indistinguishable from a new one
+  private static void sweep(long now) {
+    long due = nextSweep.get();
+    if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+      return;
+    }
+    clients.values().removeIf(cell -> cell.get() - now <= 0);
+  }
+
+  // The X-Admin-Token header must match ADMIN_TOKEN; without ADMIN_TOKEN nobody is authorized
+  public static boolean authorized(Request req) {
+    String token = ComparisonServer.setting("ADMIN_TOKEN", "");
+    String given = req.headers("X-Admin-Token");
+    return !token.isEmpty() && given != null
+            && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // POST /server/admission: {"maxInFlight", "ratePerSecond", "burst"}, each optional.
+  // Returns an error message, or null when the limits were applied.
+  public static String update(Map<String, Object> changes) {
+    Limits current = limits;
+    int maxInFlight = current.maxInFlight;
+    double ratePerSecond = current.ratePerSecond;
+    int burst = current.burst;
+    try {
+      if (changes.containsKey("maxInFlight")) maxInFlight = ((Number) changes.get("maxInFlight")).intValue();
+      if (changes.containsKey("ratePerSecond")) ratePerSecond = ((Number) changes.get("ratePerSecond")).doubleValue();
+      if (changes.containsKey("burst")) burst = ((Number) changes.get("burst")).intValue();
+    } catch (ClassCastException | NullPointerException e) {
+      return "Limits must be numbers!";
+    }
+    if (maxInFlight < 0 || ratePerSecond < 0 || burst < 1) {
+      return "maxInFlight and ratePerSecond must be at least 0 and burst at least 1!";
+    }
+    limits = new Limits(maxInFlight, ratePerSecond, burst);
+    System.out.printf("✅ Admission limits: %d in flight, %.1f requests/sec per client, burst %d%n",
+            maxInFlight, ratePerSecond, burst);
+    return null;
+  }
+
+  // Limits and counters for GET /server/admission
+  public static Map<String, Object> stats() {
+    Limits current = limits;
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("maxInFlight", current.maxInFlight);
+    stats.put("ratePerSecond", current.ratePerSecond);
+    stats.put("burst", current.burst);
+    stats.put("inFlight", inFlight.get());
+    stats.put("clients", clients.size());
+    stats.put("admitted", admitted.sum());
+    stats.put("rejectedInFlight", rejectedInFlight.sum());
+    stats.put("rejectedRate", rejectedRate.sum());
+    return stats;
+  }
+
+  public static int inFlight() {
+    return inFlight.get();
+  }
+
+  public static int clients() {
+    return clients.size();
+  }
+
+  public static long rejectedInFlight() {
+    return rejectedInFlight.sum();
+  }
+
+  public static long rejectedRate() {
+    return rejectedRate.sum();
+  }
+}
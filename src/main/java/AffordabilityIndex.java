@@ -0,0 +1,167 @@
+import java.util.Arrays;
+import java.util.Map;
+
+// Which states fit a budget: per cost column, the states sorted by cost in parallel
+// primitive arrays, so "cost <= budget" is a binary search followed by a prefix of the
+// arrays. Column 0 is the total average cost, the others follow CostStats.COLUMNS;
+// states without a cost breakdown only appear in the total column.
+public final class AffordabilityIndex {
+
+  public static final String TOTAL = "total";
+
+  private final ComparisonEngine engine;
+  private final double[][] sortedCosts; // [column][rank], ascending
+  private final int[][] sortedStates;   // [column][rank] -> stateId
+
+  private AffordabilityIndex(ComparisonEngine engine, double[][] sortedCosts, int[][] sortedStates) {
+    this.engine = engine;
+    this.sortedCosts = sortedCosts;
+    this.sortedStates = sortedStates;
+  }
+
+  public static AffordabilityIndex build(ComparisonEngine engine) {
+    int columns = 1 + CostStats.COLUMNS.length;
+    double[][] sortedCosts = new double[columns][];
+    int[][] sortedStates = new int[columns][];
+
+    for (int column = 0; column < columns; column++) {
+      Integer[] ids = new Integer[engine.stateCount()];
+      double[] costs = new double[engine.stateCount()];
+      int n = 0;
+      for (int s = 0; s < engine.stateCount(); s++) {
+        double cost = cost(engine, column, s);
+        if (Double.isNaN(cost)) continue;
+        ids[n] = s;
+        costs[s] = cost;
+        n++;
+      }
+      Integer[] present = Arrays.copyOf(ids, n);
+      Arrays.sort(present, (a, b) -> {
+        int byCost = Double.compare(costs[a], costs[b]);
+        return byCost != 0 ? byCost : Integer.compare(a, b);
+      });
+
+      sortedCosts[column] = new double[n];
+      sortedStates[column] = new int[n];
+      for (int rank = 0; rank < n; rank++) {
+        sortedStates[column][rank] = present[rank];
+        sortedCosts[column][rank] = costs[present[rank]];
+      }
+    }
+    return new AffordabilityIndex(engine, sortedCosts, sortedStates);
+  }
+
+  // NaN when the state has no value for the column
+  private static double cost(ComparisonEngine engine, int column, int stateId) {
+    if (column == 0) {
+      return engine.cost(stateId);
+    }
+    double[] breakdown = engine.breakdown(stateId);
+    return breakdown != null ? breakdown[column - 1] : Double.NaN;
+  }
+
+  // "total" or a CostStats column name; -1 when unknown
+  public static int column(String name) {
+    if (TOTAL.equalsIgnoreCase(name)) {
+      return 0;
+    }
+    int index = CostStats.columnIndex(name);
+    return index < 0 ? -1 : index + 1;
+  }
+
+  public static String columnName(int column) {
+    return column == 0 ? TOTAL : CostStats.COLUMNS[column - 1];
+  }
+
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  // Number of states whose cost in the column is at most the budget
+  public int count(int column, double budget) {
+    double[] costs = sortedCosts[column];
+    int low = 0;
+    int high = costs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (costs[mid] <= budget) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // {"column", "budget", "count", "states": [{"state", "cost"}]}, cheapest first
+  public String json(int column, double budget) {
+    int count = count(column, budget);
+    StringBuilder sb = new StringBuilder(64 + 40 * count);
+    sb.append("{\"column\":\"").append(columnName(column)).append("\",\"budget\":");
+    ComparisonEngine.appendNumber(sb, budget);
+    sb.append(",\"count\":").append(count).append(",\"states\":[");
+    for (int rank = 0; rank < count; rank++) {
+      if (rank > 0) sb.append(',');
+      sb.append("{\"state\":");
+      ComparisonEngine.appendString(sb, engine.state(sortedStates[column][rank]));
+      sb.append(",\"cost\":");
+      ComparisonEngine.appendNumber(sb, sortedCosts[column][rank]);
+      sb.append('}');
+    }
+    return sb.append("]}").toString();
+  }
+
+  // States within every budget. Walks the qualifying prefix of the most selective
+  // column and checks the other columns directly, so the work is bounded by the
+  // smallest match count rather than the number of states.
+  // {"budgets": {column: budget}, "count", "states": [{"state", "costs": {column: cost}}]}
+  public String json(Map<Integer, Double> budgets) {
+    int[] columns = new int[budgets.size()];
+    double[] limits = new double[budgets.size()];
+    int n = 0;
+    int driver = -1;
+    int driverCount = Integer.MAX_VALUE;
+    for (Map.Entry<Integer, Double> budget : budgets.entrySet()) {
+      columns[n] = budget.getKey();
+      limits[n] = budget.getValue();
+      int count = count(columns[n], limits[n]);
+      if (count < driverCount) {
+        driver = n;
+        driverCount = count;
+      }
+      n++;
+    }
+
+    StringBuilder sb = new StringBuilder(128 + 40 * driverCount * columns.length);
+    sb.append("{\"budgets\":{");
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) sb.append(',');
+      sb.append('"').append(columnName(columns[i])).append("\":");
+      ComparisonEngine.appendNumber(sb, limits[i]);
+    }
+    sb.append("},\"states\":[");
+
+    int matches = 0;
+    for (int rank = 0; rank < driverCount; rank++) {
+      int stateId = sortedStates[columns[driver]][rank];
+      boolean fits = true;
+      for (int i = 0; i < columns.length && fits; i++) {
+        double cost = cost(engine, columns[i], stateId);
+        fits = !Double.isNaN(cost) && cost <= limits[i];
+      }
+      if (!fits) continue;
+
+      if (matches++ > 0) sb.append(',');
+      sb.append("{\"state\":");
+      ComparisonEngine.appendString(sb, engine.state(stateId));
+      sb.append(",\"costs\":{");
+      for (int i = 0; i < columns.length; i++) {
+        if (i > 0) sb.append(',');
+        sb.append('"').append(columnName(columns[i])).append("\":");
+        ComparisonEngine.appendNumber(sb, cost(engine, columns[i], stateId));
+      }
+      sb.append("}}");
+    }
+    return sb.append("],\"count\":").append(matches).append('}').toString();
+  }
+}
@@ -0,0 +1,214 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+// POST /simulate: the probability that a worker of a nationality can afford a state,
+// estimated by drawing salaries and costs from fitted distributions instead of comparing
+// two averages. Salaries are lognormal with the country's median, and a spread taken from
+// the average (or from lowest / highest when the average says nothing), kept within
+// lowest..highest. Costs are lognormal fitted the same way to the state's detailed totals;
+// without detailed data the state's average cost is used as a fixed value.
+// Draws run on parallel streams, one SplittableRandom split per chunk, seeded from the
+// state id, nationality id and sample count, so a result is reproducible and can be cached
+// per snapshot.
+public final class AffordabilitySimulation {
+
+  public static final int DEFAULT_SAMPLES = 1_000_000;
+  private static final int DEFAULT_CACHE_SIZE = 256;
+  private static final int CHUNK = 65_536;
+
+  // Salary / cost ratios are binned on a log2 scale from 1/64 to 64, 100 bins per doubling
+  private static final double MIN_LOG2 = -6;
+  private static final int BINS_PER_DOUBLING = 100;
+  private static final int BINS = 12 * BINS_PER_DOUBLING;
+
+  private static final double Z_99 = 2.326; // lowest / highest are treated as 1st / 99th percentiles
+  private static final double MAX_SIGMA = 2;
+  private static final double LN_2 = Math.log(2);
+
+  private final ComparisonEngine engine;
+  private final CostHierarchy hierarchy;
+  private final int maxSamples;
+  private final Map<String, String> results;
+
+  private AffordabilitySimulation(ComparisonEngine engine, CostHierarchy hierarchy, int maxSamples, int capacity) {
+    this.engine = engine;
+    this.hierarchy = hierarchy;
+    this.maxSamples = maxSamples;
+    this.results = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // SIMULATION_MAX_SAMPLES caps a request; SIMULATION_CACHE_SIZE results are kept per snapshot
+  static AffordabilitySimulation create(ComparisonEngine engine, CostHierarchy hierarchy) {
+    int maxSamples = Integer.parseInt(ComparisonServer.setting("SIMULATION_MAX_SAMPLES", "10000000"));
+    int capacity = Integer.parseInt(ComparisonServer.setting("SIMULATION_CACHE_SIZE", String.valueOf(DEFAULT_CACHE_SIZE)));
+    return new AffordabilitySimulation(engine, hierarchy, maxSamples, capacity);
+  }
+
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  public int maxSamples() {
+    return maxSamples;
+  }
+
+  // Lognormal parameters; sigma is 0 for a fixed value
+  private static final class Fit {
+    final double mu;
+    final double sigma;
+    final double low;
+    final double high;
+
+    Fit(double median, double mean, double low, double high) {
+      double sigma = 0;
+      if (mean > median) {
+        sigma = Math.sqrt(2 * Math.log(mean / median)); // mean = median * exp(sigma^2 / 2)
+      } else if (low > 0 && high > low) {
+        sigma = Math.log(high / low) / (2 * Z_99);
+      }
+      this.mu = Math.log(median);
+      this.sigma = Math.min(sigma, MAX_SIGMA);
+      boolean bounded = low > 0 && high >= low && low <= median && median <= high;
+      this.low = bounded ? low : 0;
+      this.high = bounded ? high : Double.POSITIVE_INFINITY;
+    }
+
+    double sample(SplittableRandom random) {
+      if (sigma == 0) {
+        return Math.exp(mu);
+      }
+      double value = Math.exp(mu + sigma * random.nextGaussian());
+      return Math.min(Math.max(value, low), high);
+    }
+
+    void appendJson(StringBuilder sb) {
+      sb.append("{\"distribution\":\"").append(sigma == 0 ? "fixed" : "lognormal").append("\",\"median\":");
+      ComparisonEngine.appendNumber(sb, Math.exp(mu));
+      sb.append(",\"sigma\":");
+      ComparisonEngine.appendNumber(sb, sigma);
+      if (low > 0) {
+        sb.append(",\"min\":");
+        ComparisonEngine.appendNumber(sb, low);
+        sb.append(",\"max\":");
+        ComparisonEngine.appendNumber(sb, high);
+      }
+      sb.append('}');
+    }
+  }
+
+  // Per-chunk tally, merged after the parallel run
+  private static final class Tally {
+    final long[] bins = new long[BINS];
+    long affordable;
+    double ratioSum;
+
+    Tally merge(Tally other) {
+      for (int i = 0; i < BINS; i++) bins[i] += other.bins[i];
+      affordable += other.affordable;
+      ratioSum += other.ratioSum;
+      return this;
+    }
+
+    // Upper edge of the bin holding the q-quantile
+    double quantile(double q, long samples) {
+      long rank = (long) Math.ceil(q * samples);
+      long seen = 0;
+      for (int i = 0; i < BINS; i++) {
+        seen += bins[i];
+        if (seen >= rank) return Math.pow(2, MIN_LOG2 + (i + 1) / (double) BINS_PER_DOUBLING);
+      }
+      return Math.pow(2, MIN_LOG2 + BINS / (double) BINS_PER_DOUBLING);
+    }
+  }
+
+  // {"state", "nationality", "samples", "probability", "ratio": {"mean", "p5", "p50", "p95"},
+  //  "salary": fit, "cost": fit}; null when the salary data has no median for the country
+  public String json(int stateId, int countryId, int samples) {
+    String key = stateId + ":" + countryId + ":" + samples;
+    synchronized (results) {
+      String cached = results.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    // Simulated outside the lock; two requests racing for the same key both run it
+    String json = simulate(stateId, countryId, samples);
+    if (json != null) {
+      synchronized (results) {
+        results.put(key, json);
+      }
+    }
+    return json;
+  }
+
+  private String simulate(int stateId, int countryId, int samples) {
+    double median = engine.salary(SalaryStatistic.MEDIAN, countryId);
+    if (!(median > 0)) {
+      return null;
+    }
+    Fit salary = new Fit(median, engine.salary(SalaryStatistic.AVERAGE, countryId),
+            engine.salary(SalaryStatistic.LOWEST, countryId), engine.salary(SalaryStatistic.HIGHEST, countryId));
+
+    String state = engine.state(stateId);
+    CostHierarchy.Node area = hierarchy.get(CostHierarchy.Level.STATE, state);
+    int total = CostHierarchy.COLUMNS.length - 1;
+    Fit cost = area != null
+            ? new Fit(area.median()[total], area.mean()[total], area.min()[total], area.max()[total])
+            : new Fit(engine.cost(stateId), 0, 0, 0);
+
+    // Splits are taken in order before the parallel run, so the result does not depend on scheduling
+    int chunks = (samples + CHUNK - 1) / CHUNK;
+    SplittableRandom root = new SplittableRandom(((long) stateId << 32) ^ countryId ^ ((long) samples << 16));
+    SplittableRandom[] randoms = new SplittableRandom[chunks];
+    for (int i = 0; i < chunks; i++) randoms[i] = root.split();
+
+    long startNanos = System.nanoTime();
+    Tally tally = IntStream.range(0, chunks).parallel()
+            .mapToObj(chunk -> draw(randoms[chunk], salary, cost, Math.min(CHUNK, samples - chunk * CHUNK)))
+            .reduce(Tally::merge)
+            .orElseGet(Tally::new);
+    double millis = (System.nanoTime() - startNanos) / 1e6;
+
+    StringBuilder sb = new StringBuilder(512);
+    sb.append("{\"state\":");
+    ComparisonEngine.appendString(sb, state);
+    sb.append(",\"nationality\":");
+    ComparisonEngine.appendString(sb, engine.country(countryId));
+    sb.append(",\"samples\":").append(samples).append(",\"probability\":");
+    ComparisonEngine.appendNumber(sb, tally.affordable / (double) samples);
+    sb.append(",\"ratio\":{\"mean\":");
+    ComparisonEngine.appendNumber(sb, tally.ratioSum / samples);
+    sb.append(",\"p5\":");
+    ComparisonEngine.appendNumber(sb, tally.quantile(0.05, samples));
+    sb.append(",\"p50\":");
+    ComparisonEngine.appendNumber(sb, tally.quantile(0.5, samples));
+    sb.append(",\"p95\":");
+    ComparisonEngine.appendNumber(sb, tally.quantile(0.95, samples));
+    sb.append("},\"salary\":");
+    salary.appendJson(sb);
+    sb.append(",\"cost\":");
+    cost.appendJson(sb);
+    sb.append(",\"simulationMillis\":");
+    ComparisonEngine.appendNumber(sb, Math.round(millis * 10) / 10.0);
+    return sb.append('}').toString();
+  }
+
+  private static Tally draw(SplittableRandom random, Fit salary, Fit cost, int samples) {
+    Tally tally = new Tally();
+    for (int i = 0; i < samples; i++) {
+      double ratio = salary.sample(random) / cost.sample(random);
+      if (ratio >= 1) tally.affordable++;
+      tally.ratioSum += ratio;
+      int bin = (int) ((Math.log(ratio) / LN_2 - MIN_LOG2) * BINS_PER_DOUBLING);
+      tally.bins[Math.min(Math.max(bin, 0), BINS - 1)]++;
+    }
+    return tally;
+  }
+}
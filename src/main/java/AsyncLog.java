@@ -0,0 +1,83 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Logging for request handlers. Messages are formatted and printed on a background thread,
+// so handlers never wait on the stdout lock; when the queue is full messages are dropped
+// and counted instead. Per-request debug lines are sampled (LOG_SAMPLE_RATE: log 1 in N,
+// 1 logs everything, 0 turns them off).
+public final class AsyncLog {
+
+  private static final int CAPACITY = 4096;
+  private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+  private static final LongAdder dropped = new LongAdder();
+  private static final int sampleRate = Integer.parseInt(ComparisonServer.setting("LOG_SAMPLE_RATE", "100"));
+
+  static {
+    Thread writer = new Thread(AsyncLog::drain, "async-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private static final class Entry {
+    final boolean error;
+    final String format;
+    final Object[] args;
+
+    Entry(boolean error, String format, Object[] args) {
+      this.error = error;
+      this.format = format;
+      this.args = args;
+    }
+  }
+
+  private AsyncLog() {
+  }
+
+  public static void info(String format, Object... args) {
+    enqueue(new Entry(false, format, args));
+  }
+
+  public static void error(String format, Object... args) {
+    enqueue(new Entry(true, format, args));
+  }
+
+  // Logs roughly one call in LOG_SAMPLE_RATE
+  public static void sampled(String format, Object... args) {
+    if (sampleRate <= 0 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+      return;
+    }
+    enqueue(new Entry(false, format, args));
+  }
+
+  public static long dropped() {
+    return dropped.sum();
+  }
+
+  private static void enqueue(Entry entry) {
+    if (!queue.offer(entry)) {
+      dropped.increment();
+    }
+  }
+
+  private static void drain() {
+    List<Entry> batch = new ArrayList<>(256);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, 255);
+      for (Entry entry : batch) {
+        PrintStream out = entry.error ? System.err : System.out;
+        out.println(entry.args.length == 0 ? entry.format : String.format(entry.format, entry.args));
+      }
+      batch.clear();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+// Resolves the states x nationalities grid for POST /compare/batch and writes it as JSON.
+// Names are resolved to engine ids once; the grid itself is read straight from the engine.
+public final class BatchComparison {
+
+  private final ComparisonEngine engine;
+  private final SalaryStatistic statistic;
+  private final int[] stateIds;
+  private final int[] countryIds;
+  private final Set<String> unknownStates = new LinkedHashSet<>();
+  private final Set<String> unknownNationalities = new LinkedHashSet<>();
+
+  private BatchComparison(ComparisonEngine engine, SalaryStatistic statistic, Object states, Object nationalities) {
+    this.engine = engine;
+    this.statistic = statistic;
+    this.stateIds = resolve(states, engine.stateCount(), true, unknownStates);
+    this.countryIds = resolve(nationalities, engine.countryCount(), false, unknownNationalities);
+  }
+
+  // states / nationalities are either the string "all" or a JSON array of at most maxNames
+  // names; a name given twice, in any spelling that resolves to the same id, is used once
+  public static BatchComparison of(ComparisonEngine engine, SalaryStatistic statistic,
+                                   Object states, Object nationalities, int maxNames) {
+    if (!isSelection(states) || !isSelection(nationalities)) {
+      throw new IllegalArgumentException("states and nationalities must be a list of names or \"all\"");
+    }
+    if (size(states) > maxNames || size(nationalities) > maxNames) {
+      throw new IllegalArgumentException("states and nationalities may list at most " + maxNames + " names each");
+    }
+    return new BatchComparison(engine, statistic, states, nationalities);
+  }
+
+  private static int size(Object selection) {
+    return selection instanceof List ? ((List<?>) selection).size() : 0;
+  }
+
+  private static boolean isSelection(Object value) {
+    return value instanceof List || (value instanceof String && ((String) value).equalsIgnoreCase("all"));
+  }
+
+  private int[] resolve(Object selection, int count, boolean isState, Set<String> unknown) {
+    if (selection instanceof String) {
+      int[] all = new int[count];
+      for (int i = 0; i < count; i++) all[i] = i;
+      return all;
+    }
+
+    List<?> names = (List<?>) selection;
+    int[] ids = new int[names.size()];
+    int n = 0;
+    BitSet seen = new BitSet(count);
+    for (Object item : names) {
+      String name = String.valueOf(item);
+      int id = isState ? engine.stateId(name.trim().toUpperCase()) : engine.countryId(name);
+      if (id < 0) {
+        unknown.add(name);
+      } else if (!seen.get(id)) {
+        seen.set(id);
+        ids[n++] = id;
+      }
+    }
+    return Arrays.copyOf(ids, n);
+  }
+
+  public int cellCount() {
+    return stateIds.length * countryIds.length;
+  }
+
+  public void writeJson(Writer out) throws IOException {
+    JsonWriter json = new JsonWriter(out);
+    json.beginObject();
+
+    json.name("states").beginArray();
+    for (int s : stateIds) json.value(engine.state(s));
+    json.endArray();
+
+    json.name("nationalities").beginArray();
+    for (int c : countryIds) json.value(engine.country(c));
+    json.endArray();
+
+    json.name("cost").beginArray();
+    for (int s : stateIds) number(json, engine.cost(s));
+    json.endArray();
+
+    json.name("statistic").value(statistic.key());
+
+    json.name("salary").beginArray();
+    for (int c : countryIds) number(json, engine.salary(statistic, c));
+    json.endArray();
+
+    // ratios[i][j] is state i against nationality j
+    json.name("ratios").beginArray();
+    for (int s : stateIds) {
+      json.beginArray();
+      for (int c : countryIds) number(json, engine.ratio(statistic, s, c));
+      json.endArray();
+    }
+    json.endArray();
+
+    json.name("costBreakdown").beginObject();
+    for (int s : stateIds) {
+      double[] details = engine.breakdown(s);
+      if (details == null) continue;
+      json.name(engine.state(s)).beginArray();
+      for (double value : details) number(json, value);
+      json.endArray();
+    }
+    json.endObject();
+
+    if (!unknownStates.isEmpty() || !unknownNationalities.isEmpty()) {
+      json.name("notFound").beginObject();
+      json.name("states").beginArray();
+      for (String name : unknownStates) json.value(name);
+      json.endArray();
+      json.name("nationalities").beginArray();
+      for (String name : unknownNationalities) json.value(name);
+      json.endArray();
+      json.endObject();
+    }
+
+    json.endObject();
+    json.flush();
+  }
+
+  private static void number(JsonWriter json, double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      json.nullValue();
+    } else {
+      json.value(value);
+    }
+  }
+}
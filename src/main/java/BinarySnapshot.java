@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Compact binary form of the three data sets, built offline by DataCleaner so the
+// server can skip CSV parsing on boot. The size and checksum of each CSV it was built from
+// are stored with it, so the server can tell when a CSV has changed since.
+//
+// Layout (big endian):
+//   int magic 'MADD', int format version, int payload length, int CRC32 of payload
+//   payload:
+//     strings:  int count, then per string int byte length + UTF-8 bytes
+//     sources:  int count, then per data file the snapshot was built from: int name string id,
+//               long size, int CRC32 of the contents
+//     salaries: int statistics, int count, int[count] country string ids,
+//               then double[count] yearly salary per statistic (SalaryStatistic order)
+//     costs:    int count, int[count] state string ids, double[count] average cost
+//     details:  int columns, int count, then per state: int state string id, long rows,
+//               double[columns] mean, m2, min, max
+//     families: int count, then per state and family type: int state string id,
+//               int family string id, long rows, double[columns] mean, m2, min, max
+//     areas:    int count, then per state, metro area and county, parents first: byte level,
+//               int state string id, int name string id, int parent index or -1, long rows,
+//               double[columns + 1] mean, median, min, max (the last column is the total)
+public final class BinarySnapshot {
+
+  public static final int MAGIC = 0x4D414444; // "MADD"
+  public static final int FORMAT_VERSION = 5; // 4: county / metro / state aggregates, 5: sources
+  private static final int HEADER_BYTES = 16;
+
+  // A data file identified by its name, size and CRC32
+  public static final class Source {
+    public final String name;
+    public final long size;
+    public final int checksum;
+
+    public Source(String name, long size, int checksum) {
+      this.name = name;
+      this.size = size;
+      this.checksum = checksum;
+    }
+
+    public static Source of(String name, byte[] contents) {
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+      return new Source(name, contents.length, (int) crc.getValue());
+    }
+
+    // Reads the stream to its end; it is not closed
+    public static Source of(String name, InputStream in) throws IOException {
+      CRC32 crc = new CRC32();
+      byte[] chunk = new byte[64 * 1024];
+      long size = 0;
+      int n;
+      while ((n = in.read(chunk)) != -1) {
+        crc.update(chunk, 0, n);
+        size += n;
+      }
+      return new Source(name, size, (int) crc.getValue());
+    }
+
+    public boolean sameContents(Source other) {
+      return size == other.size && checksum == other.checksum;
+    }
+  }
+
+  public static final class Contents {
+    public final SalaryTable salaries;
+    public final Map<String, Double> stateToCost;
+    public final CostDetails costDetails;
+    public final List<Source> sources;
+
+    public Contents(SalaryTable salaries, Map<String, Double> stateToCost, CostDetails costDetails,
+                    List<Source> sources) {
+      this.salaries = salaries;
+      this.stateToCost = stateToCost;
+      this.costDetails = costDetails;
+      this.sources = sources;
+    }
+  }
+
+  private BinarySnapshot() {
+  }
+
+  public static void write(Path file, Contents contents) throws IOException {
+    // Dictionary of every name, so each section only stores int ids
+    Map<String, Integer> ids = new LinkedHashMap<>();
+    SalaryTable salaries = contents.salaries;
+    for (int c = 0; c < salaries.size(); c++) ids.putIfAbsent(salaries.country(c), ids.size());
+    for (String name : contents.stateToCost.keySet()) ids.putIfAbsent(name, ids.size());
+    Map<String, CostStats> stateCostStats = contents.costDetails.byState();
+    Map<String, Map<String, CostStats>> familyCostStats = contents.costDetails.byFamily();
+    for (String name : stateCostStats.keySet()) ids.putIfAbsent(name, ids.size());
+    int familyEntries = 0;
+    for (Map.Entry<String, Map<String, CostStats>> entry : familyCostStats.entrySet()) {
+      ids.putIfAbsent(entry.getKey(), ids.size());
+      for (String family : entry.getValue().keySet()) ids.putIfAbsent(family, ids.size());
+      familyEntries += entry.getValue().size();
+    }
+    List<CostHierarchy.Node> areas = contents.costDetails.hierarchy().nodes();
+    for (CostHierarchy.Node node : areas) ids.putIfAbsent(node.name(), ids.size());
+    for (Source source : contents.sources) ids.putIfAbsent(source.name, ids.size());
+
+    List<byte[]> encoded = new ArrayList<>(ids.size());
+    int size = 4;
+    for (String name : ids.keySet()) {
+      byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      encoded.add(bytes);
+      size += 4 + bytes.length;
+    }
+    size += 4 + contents.sources.size() * 16;
+    size += 8 + salaries.size() * (4 + 8 * SalaryStatistic.count());
+    size += 4 + contents.stateToCost.size() * 12;
+    size += 8 + stateCostStats.size() * (12 + 4 * 8 * CostStats.COLUMNS.length);
+    size += 4 + familyEntries * (16 + 4 * 8 * CostStats.COLUMNS.length);
+    size += 4 + areas.size() * (21 + 4 * 8 * CostHierarchy.COLUMNS.length);
+
+    ByteBuffer payload = ByteBuffer.allocate(size);
+    payload.putInt(encoded.size());
+    for (byte[] bytes : encoded) {
+      payload.putInt(bytes.length).put(bytes);
+    }
+    payload.putInt(contents.sources.size());
+    for (Source source : contents.sources) {
+      payload.putInt(ids.get(source.name)).putLong(source.size).putInt(source.checksum);
+    }
+    payload.putInt(SalaryStatistic.count());
+    payload.putInt(salaries.size());
+    for (int c = 0; c < salaries.size(); c++) payload.putInt(ids.get(salaries.country(c)));
+    for (SalaryStatistic statistic : SalaryStatistic.values()) {
+      for (int c = 0; c < salaries.size(); c++) payload.putDouble(salaries.value(statistic, c));
+    }
+
+    putColumn(payload, contents.stateToCost, ids);
+
+    payload.putInt(CostStats.COLUMNS.length);
+    payload.putInt(stateCostStats.size());
+    for (Map.Entry<String, CostStats> entry : stateCostStats.entrySet()) {
+      payload.putInt(ids.get(entry.getKey()));
+      putStats(payload, entry.getValue());
+    }
+
+    payload.putInt(familyEntries);
+    for (Map.Entry<String, Map<String, CostStats>> entry : familyCostStats.entrySet()) {
+      for (Map.Entry<String, CostStats> family : entry.getValue().entrySet()) {
+        payload.putInt(ids.get(entry.getKey()));
+        payload.putInt(ids.get(family.getKey()));
+        putStats(payload, family.getValue());
+      }
+    }
+
+    Map<CostHierarchy.Node, Integer> areaIndex = new IdentityHashMap<>(areas.size() * 2);
+    payload.putInt(areas.size());
+    for (CostHierarchy.Node node : areas) {
+      areaIndex.put(node, areaIndex.size());
+      payload.put((byte) node.level().ordinal());
+      payload.putInt(ids.get(node.state()));
+      payload.putInt(ids.get(node.name()));
+      payload.putInt(node.parent() == null ? -1 : areaIndex.get(node.parent()));
+      payload.putLong(node.rows());
+      for (double value : node.mean()) payload.putDouble(value);
+      for (double value : node.median()) payload.putDouble(value);
+      for (double value : node.min()) payload.putDouble(value);
+      for (double value : node.max()) payload.putDouble(value);
+    }
+    payload.flip();
+
+    CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(payload.remaining()).putInt((int) crc.getValue());
+    header.flip();
+
+    // Write next to the target and move into place, so a running server never maps a partial file
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (header.hasRemaining()) channel.write(header);
+      while (payload.hasRemaining()) channel.write(payload);
+      channel.force(true);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void putStats(ByteBuffer payload, CostStats stats) {
+    payload.putLong(stats.count());
+    for (int i = 0; i < CostStats.COLUMNS.length; i++) payload.putDouble(stats.mean(i));
+    for (int i = 0; i < CostStats.COLUMNS.length; i++) payload.putDouble(stats.m2(i));
+    for (int i = 0; i < CostStats.COLUMNS.length; i++) payload.putDouble(stats.min(i));
+    for (int i = 0; i < CostStats.COLUMNS.length; i++) payload.putDouble(stats.max(i));
+  }
+
+  private static void putColumn(ByteBuffer payload, Map<String, Double> column, Map<String, Integer> ids) {
+    payload.putInt(column.size());
+    for (String name : column.keySet()) payload.putInt(ids.get(name));
+    for (double value : column.values()) payload.putDouble(value);
+  }
+
+  // Maps the file read-only and decodes it; throws IOException if it is not a valid snapshot
+  public static Contents read(Path file) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a data snapshot: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported snapshot version " + version + " in " + file);
+    }
+    int length = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (length != buffer.remaining()) {
+      throw new IOException("Truncated snapshot: " + file);
+    }
+
+    ByteBuffer payload = buffer.slice();
+    CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+    if ((int) crc.getValue() != checksum) {
+      throw new IOException("Checksum mismatch in snapshot: " + file);
+    }
+
+    try {
+      String[] strings = new String[payload.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = new byte[payload.getInt()];
+        payload.get(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      Source[] sources = new Source[payload.getInt()];
+      for (int i = 0; i < sources.length; i++) {
+        sources[i] = new Source(strings[payload.getInt()], payload.getLong(), payload.getInt());
+      }
+
+      SalaryTable salaries = getSalaries(payload, strings);
+      Map<String, Double> stateToCost = getColumn(payload, strings);
+
+      int columns = payload.getInt();
+      if (columns != CostStats.COLUMNS.length) {
+        throw new IOException("Snapshot has " + columns + " cost columns, expected " + CostStats.COLUMNS.length);
+      }
+      int count = payload.getInt();
+      Map<String, CostStats> stateCostStats = new HashMap<>(count * 2);
+      for (int s = 0; s < count; s++) {
+        String state = strings[payload.getInt()];
+        stateCostStats.put(state, getStats(payload, columns));
+      }
+
+      int familyEntries = payload.getInt();
+      Map<String, Map<String, CostStats>> familyCostStats = new HashMap<>();
+      for (int i = 0; i < familyEntries; i++) {
+        String state = strings[payload.getInt()];
+        String family = strings[payload.getInt()];
+        familyCostStats.computeIfAbsent(state, k -> new HashMap<>()).put(family, getStats(payload, columns));
+      }
+
+      CostHierarchy hierarchy = getHierarchy(payload, strings);
+
+      return new Contents(salaries, stateToCost, new CostDetails(stateCostStats, familyCostStats, hierarchy),
+              Arrays.asList(sources));
+    } catch (RuntimeException e) {
+      // Out-of-range ids or lengths in a file that still passed the checksum
+      throw new IOException("Corrupt snapshot: " + file, e);
+    }
+  }
+
+  private static CostStats getStats(ByteBuffer payload, int columns) {
+    long rows = payload.getLong();
+    double[] mean = getDoubles(payload, columns);
+    double[] m2 = getDoubles(payload, columns);
+    double[] min = getDoubles(payload, columns);
+    double[] max = getDoubles(payload, columns);
+    return CostStats.of(rows, mean, m2, min, max);
+  }
+
+  private static CostHierarchy getHierarchy(ByteBuffer payload, String[] strings) {
+    CostHierarchy.Level[] levels = CostHierarchy.Level.values();
+    int width = CostHierarchy.COLUMNS.length;
+    CostHierarchy.Node[] nodes = new CostHierarchy.Node[payload.getInt()];
+    for (int i = 0; i < nodes.length; i++) {
+      CostHierarchy.Level level = levels[payload.get()];
+      String state = strings[payload.getInt()];
+      String name = strings[payload.getInt()];
+      int parent = payload.getInt();
+      long rows = payload.getLong();
+      double[] mean = getDoubles(payload, width);
+      double[] median = getDoubles(payload, width);
+      double[] min = getDoubles(payload, width);
+      double[] max = getDoubles(payload, width);
+      // Parents are written first, so a valid file never points forward
+      nodes[i] = new CostHierarchy.Node(level, name, state, parent < 0 ? null : nodes[parent], rows,
+              mean, median, min, max);
+    }
+    return new CostHierarchy(Arrays.asList(nodes));
+  }
+
+  private static SalaryTable getSalaries(ByteBuffer payload, String[] strings) throws IOException {
+    int statistics = payload.getInt();
+    if (statistics != SalaryStatistic.count()) {
+      throw new IOException("Snapshot has " + statistics + " salary statistics, expected " + SalaryStatistic.count());
+    }
+    int count = payload.getInt();
+    int[] ids = new int[count];
+    for (int i = 0; i < count; i++) ids[i] = payload.getInt();
+
+    double[][] columns = new double[statistics][];
+    for (int stat = 0; stat < statistics; stat++) {
+      columns[stat] = getDoubles(payload, count);
+    }
+
+    SalaryTable.Builder builder = new SalaryTable.Builder();
+    double[] row = new double[statistics];
+    for (int i = 0; i < count; i++) {
+      for (int stat = 0; stat < statistics; stat++) row[stat] = columns[stat][i];
+      builder.add(strings[ids[i]], row);
+    }
+    return builder.build();
+  }
+
+  private static Map<String, Double> getColumn(ByteBuffer payload, String[] strings) {
+    int count = payload.getInt();
+    int[] ids = new int[count];
+    for (int i = 0; i < count; i++) ids[i] = payload.getInt();
+
+    Map<String, Double> column = new HashMap<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      column.put(strings[ids[i]], payload.getDouble());
+    }
+    return column;
+  }
+
+  private static double[] getDoubles(ByteBuffer payload, int count) {
+    double[] values = new double[count];
+    payload.asDoubleBuffer().get(values);
+    payload.position(payload.position() + count * 8);
+    return values;
+  }
+}
@@ -0,0 +1,129 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// GET /map/<nationality>.svg: the blank US map with every state filled by its
+// salary / cost-of-living ratio. The template is read and split once; a render only
+// writes one CSS rule per colour between the two halves. Rendered maps live in a small
+// LRU cache that belongs to one data snapshot, so reloading data starts a fresh cache.
+public final class ChoroplethMap {
+
+  private static final String TEMPLATE = "/static/Blank_US_Map_(states_only).svg";
+  private static final int DEFAULT_CAPACITY = 64;
+
+  // Ratio upper bounds and their fills, red (cannot afford) to green (comfortable)
+  private static final double[] LIMITS = {0.5, 0.75, 1.0, 1.25, 1.5, Double.POSITIVE_INFINITY};
+  private static final String[] FILLS = {"#d73027", "#fc8d59", "#fee08b", "#d9ef8b", "#91cf60", "#1a9850"};
+
+  // Everything before and after the point in the <style> block where state rules go
+  private static byte[] head;
+  private static byte[] tail;
+
+  private final ComparisonEngine engine;
+  private final Map<Integer, StaticAssets.Asset> rendered;
+
+  private ChoroplethMap(ComparisonEngine engine, int capacity) {
+    this.engine = engine;
+    this.rendered = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, StaticAssets.Asset> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // MAP_CACHE_SIZE rendered maps are kept per snapshot; 0 turns the cache off
+  static ChoroplethMap create(ComparisonEngine engine) {
+    int capacity = Integer.parseInt(ComparisonServer.setting("MAP_CACHE_SIZE", String.valueOf(DEFAULT_CAPACITY)));
+    return new ChoroplethMap(engine, capacity);
+  }
+
+  private static synchronized void loadTemplate() {
+    if (head != null) {
+      return;
+    }
+    try (InputStream in = ChoroplethMap.class.getResourceAsStream(TEMPLATE)) {
+      if (in == null) {
+        throw new IllegalStateException("Map template not found in resources - " + TEMPLATE);
+      }
+      byte[] svg = in.readAllBytes();
+      int split = indexOf(svg, "</style>".getBytes(StandardCharsets.US_ASCII));
+      if (split < 0) {
+        throw new IllegalStateException("Map template has no <style> block");
+      }
+      tail = Arrays.copyOfRange(svg, split, svg.length);
+      head = Arrays.copyOf(svg, split);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static int indexOf(byte[] data, byte[] pattern) {
+    outer:
+    for (int i = 0; i <= data.length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j]) continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  // Map for a nationality id of this snapshot's engine
+  public StaticAssets.Asset get(SalaryStatistic statistic, int countryId) throws IOException {
+    Integer key = statistic.ordinal() * engine.countryCount() + countryId;
+    synchronized (rendered) {
+      StaticAssets.Asset cached = rendered.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    // Rendered outside the lock; two requests racing for the same map both render it.
+    // The ETag comes from the bytes, so a browser's copy from before a restart is never
+    // confirmed unless the map really is the same.
+    byte[] svg = render(statistic, countryId);
+    StaticAssets.Asset asset = StaticAssets.Asset.of("image/svg+xml", StaticAssets.REVALIDATE, svg,
+            StaticAssets.contentTag(svg));
+    synchronized (rendered) {
+      rendered.put(key, asset);
+    }
+    return asset;
+  }
+
+  byte[] render(SalaryStatistic statistic, int countryId) {
+    loadTemplate();
+
+    // Group states by colour so each fill is written once: ".ca,.tx {fill:#91cf60}"
+    List<StringBuilder> selectors = new ArrayList<>(FILLS.length);
+    for (int i = 0; i < FILLS.length; i++) selectors.add(new StringBuilder());
+    for (int s = 0; s < engine.stateCount(); s++) {
+      double ratio = engine.ratio(statistic, s, countryId);
+      if (Double.isNaN(ratio)) continue; // keeps the template's grey
+      int band = 0;
+      while (band < LIMITS.length - 1 && ratio >= LIMITS[band]) band++;
+      StringBuilder selector = selectors.get(band);
+      if (selector.length() > 0) selector.append(',');
+      selector.append('.').append(engine.state(s).toLowerCase());
+    }
+
+    StringBuilder css = new StringBuilder(1024);
+    for (int i = 0; i < FILLS.length; i++) {
+      if (selectors.get(i).length() == 0) continue;
+      css.append(selectors.get(i)).append(" {fill:").append(FILLS[i]).append("}\n");
+    }
+    byte[] rules = css.toString().getBytes(StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + rules.length + tail.length);
+    out.writeBytes(head);
+    out.writeBytes(rules);
+    out.writeBytes(tail);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,257 @@
+import java.util.*;
+
+// Immutable lookup table built once from the loaded data.
+// States and countries are interned to dense int ids so a comparison is just
+// two id lookups plus primitive array reads, with no boxing on the request path.
+public final class ComparisonEngine {
+
+  private final String[] states;
+  private final String[] countries;
+  private final Map<String, Integer> stateIds;
+  private final Map<String, Integer> countryIds;
+  private final CountryIndex countryIndex;
+
+  private final double[] cost;        // indexed by state id
+  private final double[][] salary;    // [statistic ordinal][country id]
+  private final double[][] ratio;     // [statistic ordinal][stateId * countryCount + countryId]
+  private final double[][] breakdown; // indexed by state id, null when there is no detail row
+  private final String[] families;    // family types, e.g. "2p1c", sorted
+  private final Map<String, Integer> familyIds;
+  private final double[][] familyBreakdown; // [stateId * familyCount + familyId], null when there are no rows
+
+  private ComparisonEngine(String[] states, String[] countries, double[] cost, double[][] salary,
+                           double[][] breakdown, String[] families, double[][] familyBreakdown) {
+    this.states = states;
+    this.countries = countries;
+    this.cost = cost;
+    this.salary = salary;
+    this.breakdown = breakdown;
+    this.families = families;
+    this.familyIds = index(families);
+    this.familyBreakdown = familyBreakdown;
+    this.stateIds = index(states);
+    this.countryIds = index(countries);
+    this.countryIndex = CountryIndex.build(countries);
+
+    this.ratio = new double[salary.length][states.length * countries.length];
+    for (int stat = 0; stat < salary.length; stat++) {
+      for (int s = 0; s < states.length; s++) {
+        int row = s * countries.length;
+        for (int c = 0; c < countries.length; c++) {
+          ratio[stat][row + c] = salary[stat][c] / cost[s];
+        }
+      }
+    }
+  }
+
+  public static ComparisonEngine build(SalaryTable salaries,
+                                       Map<String, Double> stateToCost,
+                                       Map<String, List<Double>> stateCostDetails,
+                                       Map<String, Map<String, CostStats>> familyCostStats) {
+    // Sorted so ids are stable for the same input data
+    String[] states = stateToCost.keySet().toArray(new String[0]);
+    Arrays.sort(states);
+
+    double[] cost = new double[states.length];
+    double[][] breakdown = new double[states.length][];
+    for (int s = 0; s < states.length; s++) {
+      cost[s] = stateToCost.get(states[s]);
+
+      List<Double> details = stateCostDetails.get(states[s]);
+      if (details != null) {
+        breakdown[s] = new double[details.size()];
+        for (int i = 0; i < breakdown[s].length; i++) {
+          breakdown[s][i] = details.get(i);
+        }
+      }
+    }
+
+    // The salary table is already sorted and columnar, so its arrays are shared as-is
+    String[] countries = new String[salaries.size()];
+    for (int c = 0; c < countries.length; c++) {
+      countries[c] = salaries.country(c);
+    }
+    double[][] salary = new double[SalaryStatistic.count()][];
+    for (int stat = 0; stat < salary.length; stat++) {
+      salary[stat] = salaries.column(SalaryStatistic.of(stat));
+    }
+
+    // Means per (state, family type), so a family breakdown is a single array read
+    SortedSet<String> familyNames = new TreeSet<>();
+    familyCostStats.values().forEach(byFamily -> familyNames.addAll(byFamily.keySet()));
+    String[] families = familyNames.toArray(new String[0]);
+    double[][] familyBreakdown = new double[states.length * families.length][];
+    for (int s = 0; s < states.length; s++) {
+      Map<String, CostStats> byFamily = familyCostStats.getOrDefault(states[s], Collections.emptyMap());
+      for (int f = 0; f < families.length; f++) {
+        CostStats stats = byFamily.get(families[f]);
+        if (stats == null) continue;
+        double[] means = new double[CostStats.COLUMNS.length];
+        for (int i = 0; i < means.length; i++) {
+          means[i] = stats.mean(i);
+        }
+        familyBreakdown[s * families.length + f] = means;
+      }
+    }
+
+    return new ComparisonEngine(states, countries, cost, salary, breakdown, families, familyBreakdown);
+  }
+
+  private static Map<String, Integer> index(String[] names) {
+    Map<String, Integer> ids = new HashMap<>(names.length * 2);
+    for (int i = 0; i < names.length; i++) {
+      ids.put(names[i], i);
+    }
+    return ids;
+  }
+
+  // Returns -1 when the state is unknown
+  public int stateId(String state) {
+    Integer id = state == null ? null : stateIds.get(state);
+    return id == null ? -1 : id;
+  }
+
+  // Exact name first, then ignoring case, accents and punctuation. Returns -1 when the country is unknown.
+  public int countryId(String country) {
+    Integer id = country == null ? null : countryIds.get(country);
+    return id != null ? id : countryIndex.lookup(country);
+  }
+
+  public CountryIndex countryIndex() {
+    return countryIndex;
+  }
+
+  public int stateCount() {
+    return states.length;
+  }
+
+  public int countryCount() {
+    return countries.length;
+  }
+
+  public String state(int stateId) {
+    return states[stateId];
+  }
+
+  public String country(int countryId) {
+    return countries[countryId];
+  }
+
+  public double cost(int stateId) {
+    return cost[stateId];
+  }
+
+  public double salary(SalaryStatistic statistic, int countryId) {
+    return salary[statistic.ordinal()][countryId];
+  }
+
+  public double ratio(SalaryStatistic statistic, int stateId, int countryId) {
+    return ratio[statistic.ordinal()][stateId * countries.length + countryId];
+  }
+
+  // Shared array, callers must not modify it
+  public double[] breakdown(int stateId) {
+    return breakdown[stateId];
+  }
+
+  // Returns -1 when the family type is unknown; case-insensitive
+  public int familyId(String family) {
+    Integer id = family == null ? null : familyIds.get(CostDetails.familyKey(family));
+    return id == null ? -1 : id;
+  }
+
+  public int familyCount() {
+    return families.length;
+  }
+
+  public String family(int familyId) {
+    return families[familyId];
+  }
+
+  // Breakdown for one family type; null when the state has no rows for it. Shared array.
+  public double[] breakdown(int stateId, int familyId) {
+    return familyBreakdown[stateId * families.length + familyId];
+  }
+
+  // Same fields the POST /compare handler used to put in its response map.
+  // costBreakdown is omitted when missing, matching Gson's default null handling.
+  public String toJson(SalaryStatistic statistic, int stateId, int countryId) {
+    StringBuilder sb = new StringBuilder(180);
+    appendJson(sb, statistic, stateId, countryId);
+    return sb.toString();
+  }
+
+  public void appendJson(StringBuilder sb, SalaryStatistic statistic, int stateId, int countryId) {
+    appendJson(sb, statistic, stateId, countryId, -1);
+  }
+
+  // With a family id the breakdown is that family type's, and a "family" field is added
+  public String toJson(SalaryStatistic statistic, int stateId, int countryId, int familyId) {
+    StringBuilder sb = new StringBuilder(200);
+    appendJson(sb, statistic, stateId, countryId, familyId);
+    return sb.toString();
+  }
+
+  public void appendJson(StringBuilder sb, SalaryStatistic statistic, int stateId, int countryId, int familyId) {
+    sb.append("{\"state\":");
+    appendString(sb, states[stateId]);
+    sb.append(",\"nationality\":");
+    appendString(sb, countries[countryId]);
+    sb.append(",\"cost\":");
+    appendNumber(sb, cost[stateId]);
+    sb.append(",\"salary\":");
+    appendNumber(sb, salary[statistic.ordinal()][countryId]);
+    sb.append(",\"statistic\":\"").append(statistic.key()).append('"');
+    if (familyId >= 0) {
+      sb.append(",\"family\":");
+      appendString(sb, families[familyId]);
+    }
+    double[] details = familyId >= 0 ? breakdown(stateId, familyId) : breakdown[stateId];
+    if (details != null) {
+      sb.append(",\"costBreakdown\":");
+      appendArray(sb, details);
+    }
+    sb.append(",\"ratio\":");
+    appendNumber(sb, ratio(statistic, stateId, countryId));
+    sb.append('}');
+  }
+
+  static void appendArray(StringBuilder sb, double[] values) {
+    sb.append('[');
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) sb.append(',');
+      appendNumber(sb, values[i]);
+    }
+    sb.append(']');
+  }
+
+  static void appendNumber(StringBuilder sb, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      sb.append("null"); // not representable in JSON
+    } else {
+      sb.append(value);
+    }
+  }
+
+  static void appendString(StringBuilder sb, String value) {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      switch (ch) {
+        case '"': sb.append("\\\""); break;
+        case '\\': sb.append("\\\\"); break;
+        case '\n': sb.append("\\n"); break;
+        case '\r': sb.append("\\r"); break;
+        case '\t': sb.append("\\t"); break;
+        default:
+          if (ch < 0x20 || ch == '<' || ch == '>' || ch == '&' || ch == '=' || ch == '\'') {
+            // Same characters Gson escapes by default
+            sb.append(String.format("\\u%04x", (int) ch));
+          } else {
+            sb.append(ch);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
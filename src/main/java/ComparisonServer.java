@@ -1,147 +1,434 @@
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
 import static spark.Spark.*;
 
 import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ComparisonServer {
 
-  private static Map<String, Double> countryToSalary;
-  private static Map<String, Double> stateToCost;
-  private static Map<String, List<Double>> stateCostDetails;
+  // The only mutable shared state; handlers read it once per request
+  private static final AtomicReference<DataSnapshot> snapshot = new AtomicReference<>();
+  private static final AtomicLong snapshotVersion = new AtomicLong();
+  private static ResponseCache.Mode responseCacheMode = ResponseCache.Mode.OFF;
+  private static Path dataDirectory; // null when only the bundled resources are used
+  private static boolean logLoads = true;
+
+  private static final Gson GSON = new Gson();
+  private static final Type JSON_OBJECT = new TypeToken<Map<String, Object>>() {}.getType();
+
+  // Batch results with more cells than this are streamed instead of buffered
+  private static final int BATCH_STREAM_THRESHOLD = 4096;
+
+  // Largest page /rank returns at once
+  private static final int MAX_RANK_PAGE = 1000;
+  private static final int MAX_SUGGESTIONS = 50;
+  // Longest states or nationalities list POST /compare/batch accepts
+  private static final int MAX_BATCH_NAMES = 1000;
+
+  // GET /compare pages, parsed once; see HtmlTemplate for the slot syntax
+  private static final HtmlTemplate COMPARE_ERROR = HtmlTemplate.compile(
+          "<html><body><h2>Error: {{message}}</h2><a href='/'>Go back</a></body></html>");
+  private static final HtmlTemplate COMPARE_NOT_FOUND = HtmlTemplate.compile(
+          "<html><body><h2>Error: Data not found!</h2>" +
+          "<p><b>State:</b> {{state}} (Cost: {{cost}})</p>" +
+          "<p><b>Nationality:</b> {{nationality}} (Salary: {{salary}})</p>" +
+          "<a href='/'>Go back</a></body></html>");
+  private static final HtmlTemplate COMPARE_RESULT = HtmlTemplate.compile(
+          "<html><head><title>Comparison Result</title></head><body>" +
+          "<h1>Comparison Results</h1>" +
+          "<p><b>State:</b> {{state}}</p>" +
+          "<p><b>Nationality:</b> {{nationality}}</p>" +
+          "<p><b>Cost of Living:</b> ${{cost:number}}</p>" +
+          "<p><b>{{salaryLabel}}:</b> ${{salary:number}}</p>");
+  private static final HtmlTemplate COMPARE_FAMILY_HEAD = HtmlTemplate.compile("<p><b>Family {{family}} costs:</b></p><ul>");
+  private static final HtmlTemplate COMPARE_FAMILY_ROW = HtmlTemplate.compile("<li>{{column}}: ${{cost:fixed}}</li>");
+  private static final HtmlTemplate COMPARE_FAMILY_TAIL = HtmlTemplate.compile("</ul>");
+  private static final HtmlTemplate COMPARE_FAMILY_MISSING = HtmlTemplate.compile(
+          "<p><b>Family {{family}}:</b> no cost breakdown for this state</p>");
+  private static final HtmlTemplate COMPARE_COVERED = HtmlTemplate.compile(
+          "<h2>✅ Your salary ({{salary:fixed}}) covers the cost of living ({{cost:fixed}}) in {{state}}! (Ratio: {{ratio:fixed}})</h2>");
+  private static final HtmlTemplate COMPARE_SHORTFALL = HtmlTemplate.compile(
+          "<h2>❌ Your salary ({{salary:fixed}}) is not enough to cover cost ({{cost:fixed}}). You need {{shortfall:fixed}} more! (Ratio: {{ratio:fixed}})</h2>");
+  private static final HtmlTemplate COMPARE_RESULT_END = HtmlTemplate.compile(
+          "<br><br><a href='/'>Go Back</a></body></html>");
+
+  // System property first, then environment variable, then the default
+  static String setting(String name, String defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      value = System.getenv().getOrDefault(name, defaultValue);
+    }
+    return value;
+  }
+
+  // Prefers a copy in DATA_DIR, falling back to the bundled resource. null when neither exists.
+  static InputStream openData(String fileName) throws IOException {
+    if (dataDirectory != null) {
+      Path file = dataDirectory.resolve(fileName);
+      if (Files.isRegularFile(file)) {
+        return Files.newInputStream(file);
+      }
+    }
+    return ComparisonServer.class.getClassLoader().getResourceAsStream(fileName);
+  }
 
-  private static Map<String, Double> loadCSV(String fileName) {
+  // Used by the benchmarks to point the loaders at generated data
+  static void useDataDirectory(Path directory, boolean logLoading) {
+    dataDirectory = directory;
+    logLoads = logLoading;
+  }
+
+  static DataSnapshot snapshot() {
+    return snapshot.get();
+  }
+
+  static Map<String, Double> loadCSV(String fileName) {
     Map<String, Double> data = new HashMap<>();
-    try {
-      InputStream inputStream = ComparisonServer.class.getClassLoader().getResourceAsStream(fileName);
+    long startNanos = System.nanoTime();
+    long rows = 0;
+    try (InputStream inputStream = openData(fileName)) {
       if (inputStream == null) {
         throw new FileNotFoundException("File not found in resources: " + fileName);
       }
 
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-      String line;
-      boolean isFirstLine = true;  // ✅ Skip header row
-
-      while ((line = reader.readLine()) != null) {
-        if (isFirstLine) {
-          isFirstLine = false; // ✅ Skip the header row
-          continue;
-        }
+      rows = CsvParser.parse(inputStream, row -> {
+        if (row.number() == 0) return; // ✅ Skip the header row
 
-        String[] parts = line.split(","); // Ensure CSV is comma-separated
-        if (parts.length == 2) {
-          String key = parts[0].trim().replace("\"", ""); // Remove double quotes
-          String valueStr = parts[1].trim().replace("\"", ""); // Remove double quotes
-          double value = Double.parseDouble(valueStr); // Convert to double
-          data.put(key, value);
+        if (row.fieldCount() == 2) {
+          data.put(row.getString(0), row.getDouble(1));
         }
-      }
+      });
     } catch (Exception e) {
       System.err.println("Error loading CSV: " + fileName);
       e.printStackTrace();
     }
+    logLoadRate(fileName, rows, startNanos);
     return data;
   }
 
-  public static Map<String, List<Double>> loadDetailedCSV(String fileName) {
-    Map<String, List<List<Double>>> tempStateData = new HashMap<>();
+  // Reads every salary statistic of salary_data.csv in one pass, converted to yearly figures
+  static SalaryTable loadSalaryTable(String fileName) {
+    SalaryTable.Builder builder = new SalaryTable.Builder();
+    double[] values = new double[SalaryStatistic.count()]; // reused for every row
+    long startNanos = System.nanoTime();
+    long rows = 0;
+    try (InputStream inputStream = openData(fileName)) {
+      if (inputStream == null) {
+        throw new FileNotFoundException("File not found in resources: " + fileName);
+      }
 
-    // Load the file as an InputStream
-    InputStream inputStream = ComparisonServer.class.getClassLoader().getResourceAsStream(fileName);
-    if (inputStream == null) {
-      System.err.println("Error: File not found in resources - " + fileName);
-      return Collections.emptyMap();
-    }
+      rows = CsvParser.parse(inputStream, row -> {
+        if (row.number() == 0) return; // Skip the header row
 
-    try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
-      String line;
-      boolean isFirstLine = true;
+        // country_name, continent_name, wage_span, median, average, lowest, highest
+        if (row.fieldCount() < 7) return;
 
-      while ((line = br.readLine()) != null) {
-        if (isFirstLine) {  // Skip the header
-          isFirstLine = false;
-          continue;
+        double factor = SalaryTable.yearlyFactor(row.getString(2));
+        if (factor == 0) {
+          System.err.println("Skipping row with unknown wage span: " + row);
+          return;
+        }
+        for (SalaryStatistic statistic : SalaryStatistic.values()) {
+          values[statistic.ordinal()] = SalaryTable.toYearly(row.getDouble(statistic.csvColumn()), factor);
         }
+        builder.add(row.getString(0), values);
+      });
+    } catch (Exception e) {
+      System.err.println("Error loading CSV: " + fileName);
+      e.printStackTrace();
+    }
+    logLoadRate(fileName, rows, startNanos);
+    return builder.build();
+  }
+
+  // Streams the detailed CSV into per-state and per-family running statistics, keeping only the
+  // area ids and cost values of each row for the county / metro / state hierarchy
+  public static CostDetails loadDetailedCSV(String fileName) {
+    CostDetails details = new CostDetails();
+    double[] selectedValues = new double[CostStats.COLUMNS.length]; // reused for every row
+    long startNanos = System.nanoTime();
+    long rows = 0;
+
+    // Load the file as an InputStream
+    try (InputStream inputStream = openData(fileName)) {
+      if (inputStream == null) {
+        System.err.println("Error: File not found in resources - " + fileName);
+        return CostDetails.empty();
+      }
 
-        // Use regex-based split to correctly handle quotes and commas
-        String[] parts = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+      rows = CsvParser.parse(inputStream, row -> {
+        if (row.number() == 0) return; // Skip the header
 
-        if (parts.length < 13) { // Ensure we have enough columns
-          System.err.println("Skipping row due to insufficient data: " + line);
-          continue;
+        if (row.fieldCount() < 13) { // Ensure we have enough columns
+          System.err.println("Skipping row due to insufficient data: " + row);
+          return;
         }
 
-        String state = parts[1].trim(); // Extract the state abbreviation (column index 1)
-        List<Double> selectedValues = new ArrayList<>();
+        String state = row.getString(1); // Extract the state abbreviation (column index 1)
+        String family = row.getString(5); // Family composition, e.g. "2p1c"
+        String metro = "true".equalsIgnoreCase(row.getString(2)) ? row.getString(3) : null; // Metro area name
+        String county = row.getString(4);
 
         try {
-          for (int i = 6; i <= 12; i++) { // Extract correct cost columns
-            selectedValues.add(Double.parseDouble(parts[i].trim().replaceAll("[^0-9.]", "")));
+          for (int i = 0; i < selectedValues.length; i++) { // Extract cost columns 6-12
+            selectedValues[i] = row.getLenientDouble(CostStats.FIRST_CSV_COLUMN + i);
           }
         } catch (NumberFormatException e) {
-          System.err.println("Skipping row due to invalid number format: " + line);
-          continue;
+          System.err.println("Skipping row due to invalid number format: " + row);
+          return;
         }
 
-        tempStateData.putIfAbsent(state, new ArrayList<>());
-        tempStateData.get(state).add(selectedValues);
-      }
+        details.add(state, family, metro, county, selectedValues);
+      });
     } catch (IOException e) {
       System.err.println("Error reading CSV file: " + e.getMessage());
     }
+    logLoadRate(fileName, rows, startNanos);
 
-    // Compute the mean for each state
-    Map<String, List<Double>> stateCostDetails = new HashMap<>();
+    return details;
+  }
 
-    for (Map.Entry<String, List<List<Double>>> entry : tempStateData.entrySet()) {
-      String state = entry.getKey();
-      List<List<Double>> allEntries = entry.getValue();
+  // Mean of each cost column per state, the shape /compare returns as costBreakdown
+  static Map<String, List<Double>> costMeans(Map<String, CostStats> stateStats) {
+    Map<String, List<Double>> means = new HashMap<>();
+    for (Map.Entry<String, CostStats> entry : stateStats.entrySet()) {
+      means.put(entry.getKey(), entry.getValue().means());
+    }
+    return means;
+  }
 
-      int numEntries = allEntries.size();
-      int numColumns = allEntries.get(0).size();
+  // (Re)loads the CSV data into a new snapshot and publishes it in one swap.
+  // Derived structures such as the response cache are rebuilt with it, so nothing stale survives.
+  // Returns false and keeps the current snapshot when the new data is unusable.
+  static synchronized boolean loadData() {
+    long startNanos = System.nanoTime();
+    // The detailed file is by far the largest, so it is parsed while the summary files load
+    CompletableFuture<CostDetails> details =
+            CompletableFuture.supplyAsync(() -> loadDetailedCSV("cost_of_living_in_the_us_updated.csv"));
+    SalaryTable salaries = loadSalaryTable("salary_data.csv");
+    if (salaries.size() == 0) {
+      // Only the cleaned two-column file is available, so just the median statistic is known
+      salaries = SalaryTable.ofSingle(SalaryStatistic.MEDIAN, loadCSV("clean_salary_data.csv"));
+    }
+    Map<String, Double> stateToCost = loadCSV("clean_cost_of_living_in_the_us_updated.csv");
 
-      List<Double> meanValues = new ArrayList<>(Collections.nCopies(numColumns, 0.0));
+    if ((salaries.size() == 0 || stateToCost.isEmpty()) && snapshot.get() != null) {
+      System.err.println("Error: reloaded data is empty, keeping snapshot v" + snapshot.get().version());
+      return false;
+    }
 
-      for (List<Double> values : allEntries) {
-        for (int i = 0; i < numColumns; i++) {
-          meanValues.set(i, meanValues.get(i) + values.get(i));
-        }
+    // On boot, answer with the summary data (no cost breakdowns) while the details are parsed.
+    // It is replaced within seconds, so the query log is not scanned to pre-warm it.
+    if (snapshot.get() == null && !details.isDone()) {
+      publish(salaries, stateToCost, CostDetails.empty(), startNanos, false);
+    }
+    // A detailed file that is missing or unreadable on reload keeps the breakdowns, families,
+    // hierarchy and simulation costs of the current snapshot rather than dropping them all
+    CostDetails costDetails = details.join();
+    DataSnapshot current = snapshot.get();
+    if (costDetails.isEmpty() && current != null && !current.costDetails().isEmpty()) {
+      System.err.println("Error: reloaded cost details are empty, keeping those of snapshot v" + current.version());
+      costDetails = current.costDetails();
+    }
+    publish(salaries, stateToCost, costDetails, startNanos, true);
+    return true;
+  }
+
+  // Loads a binary snapshot written by DataCleaner instead of parsing the CSVs.
+  // Returns false when the file is missing, invalid or older than one of the CSVs it was built
+  // from, so the caller can fall back to CSV.
+  static synchronized boolean loadBinarySnapshot(Path file) {
+    if (!Files.isRegularFile(file)) {
+      return false;
+    }
+
+    long startNanos = System.nanoTime();
+    try {
+      BinarySnapshot.Contents contents = BinarySnapshot.read(file);
+      String changed = changedSource(contents.sources);
+      if (changed != null) {
+        System.err.println("Binary snapshot " + file + " is stale (" + changed + " changed), falling back to CSV");
+        return false;
       }
+      System.out.println("✅ Mapped binary snapshot " + file);
+      publish(contents.salaries, contents.stateToCost, contents.costDetails, startNanos, true);
+      return true;
+    } catch (IOException e) {
+      System.err.println("Error loading binary snapshot, falling back to CSV: " + e.getMessage());
+      return false;
+    }
+  }
 
-      for (int i = 0; i < numColumns; i++) {
-        meanValues.set(i, meanValues.get(i) / numEntries);
+  // Name of the first data file that differs from the one the snapshot was built from, or null
+  private static String changedSource(List<BinarySnapshot.Source> sources) throws IOException {
+    for (BinarySnapshot.Source source : sources) {
+      try (InputStream inputStream = openData(source.name)) {
+        if (inputStream == null || !source.sameContents(BinarySnapshot.Source.of(source.name, inputStream))) {
+          return source.name;
+        }
       }
+    }
+    return null;
+  }
+
+  // prewarm fills the new snapshot's caches from the query log in the background
+  private static void publish(SalaryTable salaries, Map<String, Double> stateToCost,
+                              CostDetails costDetails, long startNanos, boolean prewarm) {
+    DataSnapshot next = new DataSnapshot(snapshotVersion.incrementAndGet(), salaries, stateToCost,
+            costDetails, responseCacheMode);
+    DataSnapshot previous = snapshot.getAndSet(next);
+    if (previous != null && previous.responseCache() != null) {
+      ResponseCache.recordInvalidation();
+    }
+
+    System.out.printf("✅ Published data snapshot v%d in %.1f ms%n", next.version(), (System.nanoTime() - startNanos) / 1e6);
+    if (prewarm && QueryLog.directory() != null) {
+      CompletableFuture.runAsync(() -> QueryLog.prewarm(next, snapshot::get));
+    }
+  }
+
+  private static void logLoadRate(String fileName, long rows, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    Metrics.recordLoad(fileName, rows, nanos);
+    if (!logLoads) return;
+    double seconds = nanos / 1e9;
+    System.out.printf("✅ Parsed %d rows from %s in %.1f ms (%.0f rows/sec)%n",
+            rows, fileName, seconds * 1000, seconds > 0 ? rows / seconds : 0.0);
+  }
+
+  private static String salaryLabel(SalaryStatistic statistic) {
+    switch (statistic) {
+      case AVERAGE: return "Average Salary";
+      case LOWEST: return "Lowest Salary";
+      case HIGHEST: return "Highest Salary";
+      default: return "Median Salary";
+    }
+  }
+
+  // Precomputed aggregates for one state, metro area or county, compared with a salary when a
+  // nationality is given
+  private static String compareArea(String levelName, String id, String nationality, SalaryStatistic statistic) {
+    CostHierarchy.Level level = CostHierarchy.Level.parse(levelName);
+    if (level == null) {
+      return GSON.toJson(Map.of("error", "Unknown level! Use state, metro or county."));
+    }
+    if (id == null || id.isBlank()) {
+      return GSON.toJson(Map.of("error", "Missing parameters! Give the id of the " + level.key() + "."));
+    }
+    if (statistic == null) {
+      return GSON.toJson(Map.of("error", "Unknown salary statistic! Use median, average, lowest or highest."));
+    }
 
-      stateCostDetails.put(state, meanValues);
+    DataSnapshot data = snapshot.get();
+    CostHierarchy.Node node = data.costHierarchy().get(level, id);
+    int countryId = nationality == null ? -1 : data.engine().countryId(nationality);
+    if (node == null || (nationality != null && countryId < 0)) {
+      return GSON.toJson(Map.of("error", "Data not found for the selected " + level.key() + " or nationality!"));
     }
+    return CostHierarchy.json(node, data.engine(), statistic, countryId);
+  }
 
-    return stateCostDetails;
+  private static String unknownFamily(ComparisonEngine engine) {
+    StringJoiner families = new StringJoiner(", ");
+    for (int f = 0; f < engine.familyCount(); f++) families.add(engine.family(f));
+    return "Unknown family type! Use one of: " + families;
   }
 
+  // The GET /compare result or error page for a state / nationality pair
+  private static void renderComparePage(HtmlTemplate.Buffer page, spark.Request req, String state,
+                                        String nationality, SalaryStatistic statistic, String family) {
+    if (state == null || nationality == null) {
+      page.begin(COMPARE_ERROR).text("Missing parameters!").end();
+      return;
+    }
+    if (statistic == null) {
+      page.begin(COMPARE_ERROR).text("Unknown salary statistic!").end();
+      return;
+    }
+
+    ComparisonEngine engine = snapshot.get().engine();
+    int familyId = family == null || family.isBlank() ? -1 : engine.familyId(family);
+    if (familyId < 0 && family != null && !family.isBlank()) {
+      page.begin(COMPARE_ERROR).text(unknownFamily(engine)).end();
+      return;
+    }
+    int stateId = engine.stateId(state);
+    int countryId = engine.countryId(nationality);
+
+    Metrics.lookup(req, stateId >= 0 && countryId >= 0);
+    if (stateId < 0 || countryId < 0) {
+      page.begin(COMPARE_NOT_FOUND)
+              .text(state).text(stateId >= 0 ? String.valueOf(engine.cost(stateId)) : "Not Found")
+              .text(nationality).text(countryId >= 0 ? String.valueOf(engine.salary(statistic, countryId)) : "Not Found")
+              .end();
+      return;
+    }
+    if (!Startup.isWarmUpRequest(req)) {
+      QueryLog.record(engine, QueryLog.Kind.GET, statistic, stateId, countryId, familyId);
+    }
+
+    double cost = engine.cost(stateId);
+    double salary = engine.salary(statistic, countryId);
+    double ratio = engine.ratio(statistic, stateId, countryId);
+    page.begin(COMPARE_RESULT).text(state).text(nationality).number(cost).text(salaryLabel(statistic)).number(salary).end();
+    if (familyId >= 0) {
+      double[] breakdown = engine.breakdown(stateId, familyId);
+      if (breakdown == null) {
+        page.begin(COMPARE_FAMILY_MISSING).text(engine.family(familyId)).end();
+      } else {
+        page.begin(COMPARE_FAMILY_HEAD).text(engine.family(familyId)).end();
+        for (int i = 0; i < breakdown.length; i++) {
+          page.begin(COMPARE_FAMILY_ROW).text(CostStats.COLUMNS[i]).fixed(breakdown[i]).end();
+        }
+        page.begin(COMPARE_FAMILY_TAIL).end();
+      }
+    }
+    if (ratio >= 1.0) {
+      page.begin(COMPARE_COVERED).fixed(salary).fixed(cost).text(state).fixed(ratio).end();
+    } else {
+      page.begin(COMPARE_SHORTFALL).fixed(salary).fixed(cost).fixed(cost - salary).fixed(ratio).end();
+    }
+    page.begin(COMPARE_RESULT_END).end();
+  }
+
+  // JSON is UTF-8; req.body() would decode it as ISO-8859-1 when the client sends no charset
+  private static String jsonBody(spark.Request req) {
+    return new String(req.bodyAsBytes(), StandardCharsets.UTF_8);
+  }
 
   public static void main(String[] args) {
+    Startup.begin();
+
+    // COMPARE_CACHE=off|lazy|eager
+    responseCacheMode = ResponseCache.parseMode(setting("COMPARE_CACHE", "off"));
 
-    staticFiles.location("/static");
+    // DATA_DIR holds CSVs that override the bundled ones and are reloaded when they change
+    String dataDir = setting("DATA_DIR", "");
+    if (!dataDir.isBlank()) {
+      dataDirectory = Paths.get(dataDir);
+    }
+
+    // QUERY_LOG_DIR records the pairs /compare is asked for and pre-warms the caches with the hottest
+    QueryLog.start();
 
-    // Load CSV data into memory
-    countryToSalary = loadCSV("clean_salary_data.csv");
-    stateToCost = loadCSV("clean_cost_of_living_in_the_us_updated.csv");
-    stateCostDetails = loadDetailedCSV("cost_of_living_in_the_us_updated.csv");
     // Start a simple web server
 // Use Heroku's assigned port or default to 4567 for local development
-    int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
+    int port = Integer.parseInt(setting("PORT", "8080"));
     port(port);
+    RequestExecutor.configure();
 
-
-    System.out.println("Static files are being served from: " + new File("src/main/resources").getAbsolutePath());
-
-    get("/WebPage.html", (req, res) -> {
-      res.redirect("/public/WebPage.html");
-      return null;
-    });
+    // Served from memory; registered first so they win over the routes below
+    StaticAssets.serve("/static", "WebPage.html", "Blank_US_Map_(states_only).svg");
 
     // Define routes
     get("/", (req, res) -> "Hello, Heroku!");
@@ -166,75 +453,347 @@ public class ComparisonServer {
     get("/compare", (req, res) -> {
       String state = req.queryParams("state");
       String nationality = req.queryParams("nationality");
+      SalaryStatistic statistic = SalaryStatistic.parse(req.queryParams("statistic"));
+      String family = req.queryParams("family");
 
-      if (state == null || nationality == null) {
-        return "<html><body><h2>Error: Missing parameters!</h2><a href='/'>Go back</a></body></html>";
-      }
-
-      Double cost = stateToCost.get(state);
-      Double salary = countryToSalary.get(nationality);
-      List<Double> costDetails = stateCostDetails.get(state);
-
-      if (cost == null || salary == null) {
-        return "<html><body><h2>Error: Data not found!</h2>" +
-                "<p><b>State:</b> " + state + " (Cost: " + (cost != null ? cost : "Not Found") + ")</p>" +
-                "<p><b>Nationality:</b> " + nationality + " (Salary: " + (salary != null ? salary : "Not Found") + ")</p>" +
-                "<a href='/'>Go back</a></body></html>";
-      }
-
-      Map<String, Object> response = new HashMap<>();
-      response.put("cost", cost);
-      response.put("costBreakdown", costDetails);
-
-      double ratio = salary / cost;
-      String resultMessage = (ratio >= 1.0)
-              ? String.format("<h2>✅ Your salary (%.2f) covers the cost of living (%.2f) in %s! (Ratio: %.2f)</h2>", salary, cost, state, ratio)
-              : String.format("<h2>❌ Your salary (%.2f) is not enough to cover cost (%.2f). You need %.2f more! (Ratio: %.2f)</h2>", salary, cost, (cost - salary), ratio);
-
-      return "<html><head><title>Comparison Result</title></head><body>" +
-              "<h1>Comparison Results</h1>" +
-              "<p><b>State:</b> " + state + "</p>" +
-              "<p><b>Nationality:</b> " + nationality + "</p>" +
-              "<p><b>Cost of Living:</b> $" + cost + "</p>" +
-              "<p><b>Average Salary:</b> $" + salary + "</p>" +
-              resultMessage +
-              "<br><br><a href='/'>Go Back</a>" +
-              "</body></html>";
+      // Drill-down API: /compare?level=county&id=TX/Travis County[&nationality=...]
+      if (req.queryParams("level") != null) {
+        res.type("application/json");
+        return compareArea(req.queryParams("level"), req.queryParams("id"), nationality, statistic);
+      }
+
+      HtmlTemplate.Buffer page = HtmlTemplate.Buffer.acquire();
+      try {
+        renderComparePage(page, req, state, nationality, statistic, family);
+        res.type("text/html;charset=utf-8");
+        page.writeTo(res.raw());
+        return "";
+      } finally {
+        page.release();
+      }
     });
 
     post("/compare", (req, res) -> {
       res.type("application/json");
 
-      Map<String, Object> requestData = new Gson().fromJson(req.body(), Map.class);
+      Map<String, Object> requestData = GSON.fromJson(jsonBody(req), JSON_OBJECT);
       String state = (String)requestData.get("state");
       String nationality = (String)requestData.get("nationality");
+      SalaryStatistic statistic = SalaryStatistic.parse((String)requestData.get("statistic"));
+      String family = (String)requestData.get("family");
 
       if (state == null || nationality == null) {
-        return new Gson().toJson(Map.of("error", "Missing parameters!"));
+        return GSON.toJson(Map.of("error", "Missing parameters!"));
+      }
+      if (statistic == null) {
+        return GSON.toJson(Map.of("error", "Unknown salary statistic! Use median, average, lowest or highest."));
       }
 
       state = state.trim().toUpperCase();
-      System.out.println("Processed state: " + state);
+      AsyncLog.sampled("Processed state: %s", state);
+
+      DataSnapshot data = snapshot.get();
+      ComparisonEngine engine = data.engine();
+      ResponseCache cache = data.responseCache();
+      int familyId = family == null || family.isBlank() ? -1 : engine.familyId(family);
+      if (familyId < 0 && family != null && !family.isBlank()) {
+        return GSON.toJson(Map.of("error", unknownFamily(engine)));
+      }
+      int stateId = engine.stateId(state);
+      int countryId = engine.countryId(nationality);
+
+      Metrics.lookup(req, stateId >= 0 && countryId >= 0);
+      if (stateId < 0 || countryId < 0) {
+        AsyncLog.sampled("Data not found: state %s (id %d), nationality %s (id %d)", state, stateId, nationality, countryId);
+        return GSON.toJson(Map.of("error", "Data not found for the selected state or nationality!"));
+      }
+      // The server's own warm-up traffic is random pairs, not demand
+      if (!Startup.isWarmUpRequest(req)) {
+        QueryLog.record(engine, QueryLog.Kind.POST, statistic, stateId, countryId, familyId);
+      }
 
-      Double cost = stateToCost.get(state);
-      Double salary = countryToSalary.get(nationality);
+      // The response cache only holds the all-households breakdown
+      if (familyId >= 0) {
+        return engine.toJson(statistic, stateId, countryId, familyId);
+      }
+      if (cache != null) {
+        return cache.get(statistic, stateId, countryId);
+      }
+      return engine.toJson(statistic, stateId, countryId);
+    });
+
+    post("/compare/batch", (req, res) -> {
+      res.type("application/json");
+
+      Map<String, Object> requestData = GSON.fromJson(jsonBody(req), JSON_OBJECT);
+      if (requestData == null) {
+        return GSON.toJson(Map.of("error", "Missing parameters!"));
+      }
+
+      SalaryStatistic statistic = SalaryStatistic.parse((String)requestData.get("statistic"));
+      if (statistic == null) {
+        return GSON.toJson(Map.of("error", "Unknown salary statistic! Use median, average, lowest or highest."));
+      }
+
+      BatchComparison batch;
+      try {
+        batch = BatchComparison.of(snapshot.get().engine(), statistic, requestData.get("states"),
+                requestData.get("nationalities"), MAX_BATCH_NAMES);
+      } catch (IllegalArgumentException e) {
+        return GSON.toJson(Map.of("error", e.getMessage()));
+      }
+
+      if (batch.cellCount() <= BATCH_STREAM_THRESHOLD) {
+        StringWriter out = new StringWriter();
+        batch.writeJson(out);
+        return out.toString();
+      }
+
+      // Large grids go straight to the socket instead of being built in memory first
+      Writer out = new BufferedWriter(new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8));
+      batch.writeJson(out);
+      out.flush();
+      return "";
+    });
+
+    get("/compare/cache", (req, res) -> {
+      res.type("application/json");
+      ResponseCache cache = snapshot.get().responseCache();
+
+      Map<String, Object> stats = new LinkedHashMap<>();
+      stats.put("mode", responseCacheMode.name().toLowerCase());
+      stats.put("hits", ResponseCache.hits());
+      stats.put("misses", ResponseCache.misses());
+      stats.put("invalidations", ResponseCache.invalidations());
+      stats.put("entries", cache != null ? cache.size() : 0);
+      stats.put("capacity", cache != null ? cache.capacity() : 0);
+      return GSON.toJson(stats);
+    });
+
+    // Most affordable states for a nationality, or best-off nationalities in a state:
+    // /rank?nationality=Canada&k=10&offset=0 or /rank?state=TX
+    get("/rank", (req, res) -> {
+      res.type("application/json");
+      String nationality = req.queryParams("nationality");
+      String state = req.queryParams("state");
+      SalaryStatistic statistic = SalaryStatistic.parse(req.queryParams("statistic"));
+      if ((nationality == null) == (state == null)) {
+        return GSON.toJson(Map.of("error", "Give either a nationality or a state!"));
+      }
+      if (statistic == null) {
+        return GSON.toJson(Map.of("error", "Unknown salary statistic! Use median, average, lowest or highest."));
+      }
+
+      int k;
+      int offset;
+      try {
+        k = Integer.parseInt(Objects.requireNonNullElse(req.queryParams("k"), "10"));
+        offset = Integer.parseInt(Objects.requireNonNullElse(req.queryParams("offset"), "0"));
+      } catch (NumberFormatException e) {
+        return GSON.toJson(Map.of("error", "k and offset must be whole numbers!"));
+      }
+      if (k < 1 || k > MAX_RANK_PAGE || offset < 0) {
+        return GSON.toJson(Map.of("error", "k must be between 1 and " + MAX_RANK_PAGE + " and offset at least 0!"));
+      }
+
+      RankingIndex ranking = snapshot.get().rankingIndex();
+      ComparisonEngine engine = ranking.engine();
+      int id = nationality != null ? engine.countryId(nationality) : engine.stateId(state.trim().toUpperCase());
+      Metrics.lookup(req, id >= 0);
+      if (id < 0) {
+        return GSON.toJson(Map.of("error", "Data not found for the selected state or nationality!"));
+      }
+      return nationality != null
+              ? ranking.statesJson(statistic, id, offset, k)
+              : ranking.nationalitiesJson(statistic, id, offset, k);
+    });
+
+    // States within a budget: /affordable?salary=55000&column=housing (column defaults to total),
+    // or one budget per category: /affordable?housing=20000&food=9000
+    get("/affordable", (req, res) -> {
+      res.type("application/json");
+      AffordabilityIndex index = snapshot.get().affordabilityIndex();
+      try {
+        String salary = req.queryParams("salary");
+        if (salary != null) {
+          String name = Objects.requireNonNullElse(req.queryParams("column"), AffordabilityIndex.TOTAL);
+          int column = AffordabilityIndex.column(name);
+          if (column < 0) {
+            return GSON.toJson(Map.of("error", "Unknown cost column: " + name));
+          }
+          return index.json(column, Double.parseDouble(salary));
+        }
+
+        Map<Integer, Double> budgets = new LinkedHashMap<>();
+        for (String name : req.queryParams()) {
+          int column = AffordabilityIndex.column(name);
+          if (column >= 0) {
+            budgets.put(column, Double.parseDouble(req.queryParams(name)));
+          }
+        }
+        if (budgets.isEmpty()) {
+          return GSON.toJson(Map.of("error", "Missing parameters! Give a salary or a budget per cost column."));
+        }
+        return index.json(budgets);
+      } catch (NumberFormatException e) {
+        return GSON.toJson(Map.of("error", "Budgets must be numbers!"));
+      }
+    });
+
+    // Probability that a salary drawn for the nationality covers a cost drawn for the state
+    post("/simulate", (req, res) -> {
+      res.type("application/json");
+
+      Map<String, Object> requestData = GSON.fromJson(jsonBody(req), JSON_OBJECT);
+      if (requestData == null || requestData.get("state") == null || requestData.get("nationality") == null) {
+        return GSON.toJson(Map.of("error", "Missing parameters!"));
+      }
+      AffordabilitySimulation simulation = snapshot.get().simulation();
+      int samples = AffordabilitySimulation.DEFAULT_SAMPLES;
+      if (requestData.get("samples") != null) {
+        if (!(requestData.get("samples") instanceof Number)) {
+          return GSON.toJson(Map.of("error", "samples must be a number!"));
+        }
+        samples = ((Number) requestData.get("samples")).intValue();
+      }
+      if (samples < 1 || samples > simulation.maxSamples()) {
+        return GSON.toJson(Map.of("error", "samples must be between 1 and " + simulation.maxSamples() + "!"));
+      }
 
-      if (cost == null || salary == null) {
-        System.out.println(cost + "?????" + salary);
-        return new Gson().toJson(Map.of("error", "Data not found for the selected state or nationality!"));
+      ComparisonEngine engine = simulation.engine();
+      int stateId = engine.stateId(((String) requestData.get("state")).trim().toUpperCase());
+      int countryId = engine.countryId((String) requestData.get("nationality"));
+      Metrics.lookup(req, stateId >= 0 && countryId >= 0);
+      String json = stateId >= 0 && countryId >= 0 ? simulation.json(stateId, countryId, samples) : null;
+      if (json == null) {
+        return GSON.toJson(Map.of("error", "Data not found for the selected state or nationality!"));
       }
+      return json;
+    });
+
+    // Autocomplete for the nationality field: /countries/suggest?q=uni&k=10
+    get("/countries/suggest", (req, res) -> {
+      res.type("application/json");
+      String query = req.queryParams("q");
+      int k;
+      try {
+        k = Integer.parseInt(Objects.requireNonNullElse(req.queryParams("k"), "10"));
+      } catch (NumberFormatException e) {
+        return GSON.toJson(Map.of("error", "k must be a whole number!"));
+      }
+      if (k < 1 || k > MAX_SUGGESTIONS) {
+        return GSON.toJson(Map.of("error", "k must be between 1 and " + MAX_SUGGESTIONS + "!"));
+      }
+      List<String> suggestions = query == null ? List.of()
+              : snapshot.get().engine().countryIndex().suggest(query, k);
+      return GSON.toJson(Map.of("q", Objects.requireNonNullElse(query, ""), "suggestions", suggestions));
+    });
 
-      double ratio = salary / cost;
+    // Affordability map for one nationality, e.g. /map/Canada.svg?statistic=average
+    get("/map/:file", (req, res) -> {
+      String file = req.params("file");
+      SalaryStatistic statistic = SalaryStatistic.parse(req.queryParams("statistic"));
+      if (!file.endsWith(".svg") || statistic == null) {
+        res.status(404);
+        return "Not found";
+      }
+
+      ChoroplethMap map = snapshot.get().choroplethMap();
+      String nationality = file.substring(0, file.length() - ".svg".length());
+      int countryId = map.engine().countryId(nationality);
+      Metrics.lookup(req, countryId >= 0);
+      if (countryId < 0) {
+        res.status(404);
+        return "Data not found for nationality " + nationality;
+      }
+      return StaticAssets.write(req, res, map.get(statistic, countryId));
+    });
+
+    get("/server/executor", (req, res) -> {
+      res.type("application/json");
+      return GSON.toJson(RequestExecutor.stats());
+    });
 
-      Map<String, Object> response = new HashMap<>();
-      response.put("state", state);
-      response.put("nationality", nationality);
-      response.put("cost", cost);
-      response.put("salary", salary);
-      response.put("costBreakdown", stateCostDetails.get(state));
-      response.put("ratio", ratio);
+    // Query log counters and the hottest logged pairs (?top=, default 20). Reads every log file,
+    // so like the admission settings it needs ADMIN_TOKEN.
+    get("/server/query-log", (req, res) -> {
+      res.type("application/json");
+      if (!AdmissionControl.authorized(req)) {
+        res.status(403);
+        return GSON.toJson(Map.of("error", "Forbidden"));
+      }
+      Path directory = QueryLog.directory();
+      if (directory == null) {
+        return GSON.toJson(Map.of("error", "The query log is off; set QUERY_LOG_DIR to turn it on."));
+      }
+      int top;
+      try {
+        top = req.queryParams("top") == null ? 20 : Integer.parseInt(req.queryParams("top"));
+      } catch (NumberFormatException e) {
+        return GSON.toJson(Map.of("error", "top must be a number!"));
+      }
+      List<Map<String, Object>> hottest = new ArrayList<>();
+      for (QueryLog.Pair pair : QueryLog.hottest(directory, Math.max(0, Math.min(top, MAX_RANK_PAGE)))) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("statistic", pair.statistic.key());
+        entry.put("state", pair.state);
+        entry.put("nationality", pair.nationality);
+        entry.put("count", pair.count);
+        hottest.add(entry);
+      }
+      Map<String, Object> stats = new LinkedHashMap<>();
+      stats.put("recorded", QueryLog.recorded());
+      stats.put("dropped", QueryLog.dropped());
+      stats.put("bytesWritten", QueryLog.bytesWritten());
+      stats.put("files", QueryLog.files(directory).size());
+      stats.put("hottest", hottest);
+      return GSON.toJson(stats);
+    });
 
-      return new Gson().toJson(response);
+    get("/server/admission", (req, res) -> {
+      res.type("application/json");
+      return GSON.toJson(AdmissionControl.stats());
+    });
+
+    post("/server/admission", (req, res) -> {
+      res.type("application/json");
+      if (!AdmissionControl.authorized(req)) {
+        res.status(403);
+        return GSON.toJson(Map.of("error", "Forbidden"));
+      }
+      Map<String, Object> changes = GSON.fromJson(jsonBody(req), JSON_OBJECT);
+      String error = AdmissionControl.update(changes != null ? changes : Map.of());
+      if (error != null) {
+        res.status(400);
+        return GSON.toJson(Map.of("error", error));
+      }
+      return GSON.toJson(AdmissionControl.stats());
+    });
+
+    get("/metrics", (req, res) -> {
+      res.type("text/plain; version=0.0.4");
+      return Metrics.prometheus(snapshot.get());
+    });
+
+    // The process is up and serving HTTP
+    get("/health/live", (req, res) -> {
+      res.type("application/json");
+      return "{\"status\":\"live\"}";
+    });
+
+    // 503 until the data is loaded and the warm-up is done, so traffic can wait for it
+    get("/health/ready", (req, res) -> {
+      res.type("application/json");
+      Map<String, Object> health = new LinkedHashMap<>();
+      health.put("status", Startup.isReady() ? "ready" : "starting");
+      health.put("phase", Startup.phase().name().toLowerCase());
+      DataSnapshot data = snapshot.get();
+      health.put("snapshotVersion", data != null ? data.version() : 0);
+      health.put("phaseMillis", Startup.phaseMillis());
+      if (!Startup.isReady()) {
+        res.status(503);
+      }
+      return GSON.toJson(health);
     });
 
 
@@ -524,37 +1083,36 @@ public class ComparisonServer {
             """;
     });
 
-    // Handle form submission and process comparison
-    post("/compare", (req, res) -> {
-      res.type("application/json");
-
-      // Parse request JSON
-      Map<String, String> requestData = new Gson().fromJson(req.body(), Map.class);
-      String state = requestData.get("state");
-      String nationality = requestData.get("nationality"); // Get nationality from request
-
-      if (!stateToCost.containsKey(state)) {
-        return new Gson().toJson(Map.of("error", "State data not found"));
-      }
-      if (!countryToSalary.containsKey(nationality)) {
-        return new Gson().toJson(Map.of("error", "Salary data for nationality not found"));
-      }
-
-      double cost = stateToCost.get(state);  // Get cost of living in state
-      double salary = countryToSalary.get(nationality);  // Get salary based on nationality
-
-      System.out.println("Responding: Cost=" + cost + ", Salary=" + salary); // Debugging log
-
-      // Construct response JSON
-      Map<String, Object> response = new HashMap<>();
-      response.put("state", state);
-      response.put("nationality", nationality);
-      response.put("cost", cost);
-      response.put("salary", salary);
-      response.put("ratio", salary / cost);
+    // Needs the complete route table, so it goes last
+    Metrics.install();
+    Startup.requireData(snapshot::get, "/compare", "/compare/*", "/rank", "/affordable", "/simulate",
+            "/countries/*", "/map/*");
+    // Only the comparison routes; diagnostics such as /compare/cache stay reachable under load
+    AdmissionControl.install("/compare", "/compare/batch", "/simulate");
+
+    // The port is bound before any data is read, so a slow load never looks like a boot failure
+    awaitInitialization();
+    Startup.enter(Startup.Phase.LOADING);
+
+    // A binary snapshot from DataCleaner skips CSV parsing on boot as long as the CSVs it was
+    // built from are unchanged; reloads always use the CSVs
+    String snapshotFile = setting("DATA_SNAPSHOT",
+            dataDirectory != null ? dataDirectory.resolve("maddata.snapshot").toString() : "");
+    if (snapshotFile.isBlank() || !loadBinarySnapshot(Paths.get(snapshotFile))) {
+      loadData();
+    }
 
-      return new Gson().toJson(response);
-    });
+    if (dataDirectory != null && Files.isDirectory(dataDirectory)) {
+      long debounceMillis = Long.parseLong(setting("DATA_RELOAD_DEBOUNCE_MS", "500"));
+      DataWatcher.start(dataDirectory, debounceMillis, ComparisonServer::loadData);
+    }
 
+    // WARMUP_MAX_MS > 0 exercises /compare until it is JIT-compiled, for at most that long
+    long warmUpMillis = Long.parseLong(setting("WARMUP_MAX_MS", "0"));
+    if (warmUpMillis > 0) {
+      Startup.enter(Startup.Phase.WARMING_UP);
+      Startup.warmUp(port, snapshot.get().engine(), warmUpMillis);
+    }
+    Startup.enter(Startup.Phase.READY);
   }
 }
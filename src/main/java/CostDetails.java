@@ -0,0 +1,97 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Cost-column statistics from the detailed cost-of-living CSV, gathered in one pass:
+// per state, and per state and family composition. The upstream data has one row per
+// county and family type ("1p0c" = one parent, no children ... "2p4c"), so the per-state
+// figures mix household types while the per-family ones do not. The same rows feed the
+// county / metro / state hierarchy. The per-state and per-family statistics are streamed, but
+// the hierarchy needs every row for its exact medians, so peak heap while loading is O(rows).
+// The rows are dropped when hierarchy() aggregates them, which DataSnapshot does while it is
+// built, so a published snapshot holds aggregates only.
+public final class CostDetails {
+
+  private final Map<String, CostStats> byState;
+  private final Map<String, Map<String, CostStats>> byFamily; // state -> family type -> stats
+  private CostHierarchy.Builder areaRows; // null once aggregated, or when restored already aggregated
+  private CostHierarchy hierarchy;
+
+  public CostDetails() {
+    this.byState = new HashMap<>();
+    this.byFamily = new HashMap<>();
+    this.areaRows = new CostHierarchy.Builder();
+  }
+
+  CostDetails(Map<String, CostStats> byState, Map<String, Map<String, CostStats>> byFamily,
+              CostHierarchy hierarchy) {
+    this.byState = byState;
+    this.byFamily = byFamily;
+    this.areaRows = null;
+    this.hierarchy = hierarchy;
+  }
+
+  public static CostDetails empty() {
+    return new CostDetails(Collections.emptyMap(), Collections.emptyMap(), CostHierarchy.EMPTY);
+  }
+
+  // Family types are compared case-insensitively, e.g. "2P1C" and "2p1c"
+  static String familyKey(String family) {
+    return family.trim().toLowerCase();
+  }
+
+  // row holds the CostStats.COLUMNS values; family may be empty when the CSV has none,
+  // metro is null outside metro areas
+  public void add(String state, String family, String metro, String county, double[] row) {
+    requireRows();
+    byState.computeIfAbsent(state, k -> new CostStats()).add(row);
+    areaRows.add(state, metro, county, row);
+    if (!family.isEmpty()) {
+      byFamily.computeIfAbsent(state, k -> new HashMap<>())
+              .computeIfAbsent(familyKey(family), k -> new CostStats()).add(row);
+    }
+  }
+
+  // Combines statistics gathered from another part of the same file
+  public void merge(CostDetails other) {
+    requireRows();
+    other.requireRows();
+    other.byState.forEach((state, stats) -> byState.computeIfAbsent(state, k -> new CostStats()).merge(stats));
+    other.byFamily.forEach((state, families) -> families.forEach((family, stats) ->
+            byFamily.computeIfAbsent(state, k -> new HashMap<>())
+                    .computeIfAbsent(family, k -> new CostStats()).merge(stats)));
+    areaRows.merge(other.areaRows);
+  }
+
+  // County, metro and state aggregates, built in parallel per state by the first call, which
+  // also drops the raw rows; no rows can be added after that
+  public synchronized CostHierarchy hierarchy() {
+    if (hierarchy == null) {
+      long startNanos = System.nanoTime();
+      hierarchy = areaRows.build();
+      areaRows = null;
+      System.out.printf("✅ Aggregated %d states, %d metro areas and %d counties in %.1f ms%n",
+              hierarchy.count(CostHierarchy.Level.STATE), hierarchy.count(CostHierarchy.Level.METRO),
+              hierarchy.count(CostHierarchy.Level.COUNTY), (System.nanoTime() - startNanos) / 1e6);
+    }
+    return hierarchy;
+  }
+
+  private void requireRows() {
+    if (areaRows == null) {
+      throw new IllegalStateException("Cost details were already aggregated");
+    }
+  }
+
+  public Map<String, CostStats> byState() {
+    return byState;
+  }
+
+  public Map<String, Map<String, CostStats>> byFamily() {
+    return byFamily;
+  }
+
+  public boolean isEmpty() {
+    return byState.isEmpty();
+  }
+}
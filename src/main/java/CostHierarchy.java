@@ -0,0 +1,337 @@
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Cost aggregates for every county, metro area and state in the detailed CSV, computed
+// bottom-up once per load so a drill-down query is one map lookup. Each state is its
+// own subtree (state -> metro areas -> counties, with non-metro counties directly under
+// the state) and is aggregated in parallel with the others. Metro areas that cross a
+// state line appear once per state.
+// Medians are exact, so every row's values are kept until build(): peak heap while loading
+// is O(rows), about 72 bytes a row in primitive arrays, unlike the streaming CostStats.
+// The built hierarchy holds only the per-node aggregates.
+public final class CostHierarchy {
+
+  public static final CostHierarchy EMPTY = new CostHierarchy(Collections.emptyList());
+
+  // CostStats.COLUMNS followed by the row total
+  public static final String[] COLUMNS = columns();
+  private static final int WIDTH = CostStats.COLUMNS.length + 1;
+
+  public enum Level {
+    STATE, METRO, COUNTY;
+
+    public String key() {
+      return name().toLowerCase();
+    }
+
+    // null when the name is not a level
+    public static Level parse(String name) {
+      for (Level level : values()) {
+        if (level.key().equalsIgnoreCase(name)) return level;
+      }
+      return null;
+    }
+  }
+
+  public static final class Node {
+    private final Level level;
+    private final String id;    // "TX", "TX/Austin-Round Rock, TX MSA", "TX/Travis County"
+    private final String name;
+    private final String state;
+    private final Node parent;
+    private final List<Node> children = new ArrayList<>();
+    private final long rows;
+    private final double[] mean;
+    private final double[] median;
+    private final double[] min;
+    private final double[] max;
+
+    Node(Level level, String name, String state, Node parent, long rows,
+         double[] mean, double[] median, double[] min, double[] max) {
+      this.level = level;
+      this.id = level == Level.STATE ? state : state + "/" + name;
+      this.name = name;
+      this.state = state;
+      this.parent = parent;
+      this.rows = rows;
+      this.mean = mean;
+      this.median = median;
+      this.min = min;
+      this.max = max;
+      if (parent != null) parent.children.add(this);
+    }
+
+    public Level level() {
+      return level;
+    }
+
+    public String id() {
+      return id;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public String state() {
+      return state;
+    }
+
+    // null for a state
+    public Node parent() {
+      return parent;
+    }
+
+    public List<Node> children() {
+      return children;
+    }
+
+    public long rows() {
+      return rows;
+    }
+
+    // Column values are indexed like COLUMNS; the arrays are shared and must not be modified
+    public double[] mean() {
+      return mean;
+    }
+
+    public double[] median() {
+      return median;
+    }
+
+    public double[] min() {
+      return min;
+    }
+
+    public double[] max() {
+      return max;
+    }
+
+    public double meanTotal() {
+      return mean[WIDTH - 1];
+    }
+  }
+
+  private final List<Node> nodes; // each state followed by its subtree, parents before children
+  private final Map<String, Node> byKey;
+  private final int[] levelCounts = new int[Level.values().length];
+
+  CostHierarchy(List<Node> nodes) {
+    this.nodes = nodes;
+    this.byKey = new HashMap<>(nodes.size() * 2);
+    for (Node node : nodes) {
+      byKey.put(key(node.level, node.id), node);
+      levelCounts[node.level.ordinal()]++;
+    }
+  }
+
+  private static String[] columns() {
+    String[] columns = Arrays.copyOf(CostStats.COLUMNS, CostStats.COLUMNS.length + 1);
+    columns[columns.length - 1] = "total";
+    return columns;
+  }
+
+  // Ids match without regard to case, accents or punctuation, like country names
+  private static String key(Level level, String id) {
+    return level.ordinal() + CountryIndex.fold(id);
+  }
+
+  // null when there is no such node
+  public Node get(Level level, String id) {
+    return id == null ? null : byKey.get(key(level, id));
+  }
+
+  List<Node> nodes() {
+    return nodes;
+  }
+
+  public int count(Level level) {
+    return levelCounts[level.ordinal()];
+  }
+
+  public boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  // Collects the rows of the detailed CSV; only the area ids and the cost values are kept,
+  // but those are kept for every row until build()
+  public static final class Builder {
+
+    private final Map<String, StateRows> states = new HashMap<>();
+
+    // costs holds the CostStats.COLUMNS values; metro is null outside metro areas
+    public void add(String state, String metro, String county, double[] costs) {
+      states.computeIfAbsent(state, k -> new StateRows()).add(metro, county, costs);
+    }
+
+    public void merge(Builder other) {
+      other.states.forEach((state, rows) -> states.computeIfAbsent(state, k -> new StateRows()).merge(rows));
+    }
+
+    public CostHierarchy build() {
+      List<List<Node>> subtrees = new TreeMap<>(states).entrySet().parallelStream()
+              .map(entry -> entry.getValue().aggregate(entry.getKey()))
+              .collect(Collectors.toList());
+      List<Node> nodes = new ArrayList<>();
+      subtrees.forEach(nodes::addAll);
+      return new CostHierarchy(nodes);
+    }
+  }
+
+  // One state's rows as area ids plus a flat array of row values, WIDTH per row
+  private static final class StateRows {
+    private final Map<String, Integer> metroIds = new LinkedHashMap<>();
+    private final Map<String, Integer> countyIds = new LinkedHashMap<>();
+    private final Map<Integer, Integer> countyMetro = new HashMap<>(); // county id -> metro id, -1 outside
+    private int[] metros = new int[64];
+    private int[] counties = new int[64];
+    private double[] values = new double[64 * WIDTH];
+    private int rows;
+
+    void add(String metro, String county, double[] costs) {
+      if (rows == metros.length) {
+        metros = Arrays.copyOf(metros, rows * 2);
+        counties = Arrays.copyOf(counties, rows * 2);
+        values = Arrays.copyOf(values, rows * 2 * WIDTH);
+      }
+      int metroId = metro == null || metro.isBlank() ? -1 : metroIds.computeIfAbsent(metro, k -> metroIds.size());
+      int countyId = county == null || county.isBlank() ? -1 : countyIds.computeIfAbsent(county, k -> countyIds.size());
+      if (countyId >= 0) countyMetro.putIfAbsent(countyId, metroId);
+
+      double total = 0;
+      for (int i = 0; i < costs.length; i++) {
+        values[rows * WIDTH + i] = costs[i];
+        total += costs[i];
+      }
+      values[rows * WIDTH + WIDTH - 1] = total;
+      metros[rows] = metroId;
+      counties[rows] = countyId;
+      rows++;
+    }
+
+    void merge(StateRows other) {
+      String[] otherMetros = other.metroIds.keySet().toArray(new String[0]);
+      String[] otherCounties = other.countyIds.keySet().toArray(new String[0]);
+      double[] costs = new double[WIDTH - 1];
+      for (int r = 0; r < other.rows; r++) {
+        System.arraycopy(other.values, r * WIDTH, costs, 0, costs.length);
+        add(other.metros[r] < 0 ? null : otherMetros[other.metros[r]],
+                other.counties[r] < 0 ? null : otherCounties[other.counties[r]], costs);
+      }
+    }
+
+    // The state node, then each metro area and its counties, then non-metro counties
+    List<Node> aggregate(String state) {
+      List<Node> nodes = new ArrayList<>(1 + metroIds.size() + countyIds.size());
+      int[] all = new int[rows];
+      for (int r = 0; r < rows; r++) all[r] = r;
+      Node stateNode = node(Level.STATE, state, state, null, all);
+      nodes.add(stateNode);
+
+      String[] metroNames = metroIds.keySet().toArray(new String[0]);
+      String[] countyNames = countyIds.keySet().toArray(new String[0]);
+      int[][] metroRows = group(metros, metroNames.length);
+      int[][] countyRows = group(counties, countyNames.length);
+      for (int m = 0; m < metroNames.length; m++) {
+        Node metroNode = node(Level.METRO, metroNames[m], state, stateNode, metroRows[m]);
+        nodes.add(metroNode);
+        for (int c = 0; c < countyNames.length; c++) {
+          if (countyMetro.get(c) != m) continue;
+          nodes.add(node(Level.COUNTY, countyNames[c], state, metroNode, countyRows[c]));
+        }
+      }
+      for (int c = 0; c < countyNames.length; c++) {
+        if (countyMetro.get(c) >= 0) continue;
+        nodes.add(node(Level.COUNTY, countyNames[c], state, stateNode, countyRows[c]));
+      }
+      return nodes;
+    }
+
+    // Row numbers per group id; rows with id -1 belong to no group
+    private int[][] group(int[] ids, int groups) {
+      int[] sizes = new int[groups];
+      for (int r = 0; r < rows; r++) {
+        if (ids[r] >= 0) sizes[ids[r]]++;
+      }
+      int[][] grouped = new int[groups][];
+      for (int g = 0; g < groups; g++) grouped[g] = new int[sizes[g]];
+      Arrays.fill(sizes, 0);
+      for (int r = 0; r < rows; r++) {
+        if (ids[r] >= 0) grouped[ids[r]][sizes[ids[r]]++] = r;
+      }
+      return grouped;
+    }
+
+    private Node node(Level level, String name, String state, Node parent, int[] selected) {
+      int n = selected.length;
+
+      double[] mean = new double[WIDTH];
+      double[] median = new double[WIDTH];
+      double[] min = new double[WIDTH];
+      double[] max = new double[WIDTH];
+      double[] column = new double[n];
+      for (int i = 0; i < WIDTH; i++) {
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+          column[k] = values[selected[k] * WIDTH + i];
+          sum += column[k];
+        }
+        Arrays.sort(column);
+        mean[i] = sum / n;
+        median[i] = n % 2 == 1 ? column[n / 2] : (column[n / 2 - 1] + column[n / 2]) / 2;
+        min[i] = column[0];
+        max[i] = column[n - 1];
+      }
+      return new Node(level, name, state, parent, n, mean, median, min, max);
+    }
+  }
+
+  // {"level", "id", "name", "state", "parent", "rows", "columns": {column: {"mean", "median", "min", "max"}},
+  //  "children": [ids]}; the comparison fields are added when countryId is not -1
+  public static String json(Node node, ComparisonEngine engine, SalaryStatistic statistic, int countryId) {
+    StringBuilder sb = new StringBuilder(512 + 48 * node.children.size());
+    sb.append("{\"level\":\"").append(node.level.key()).append("\",\"id\":");
+    ComparisonEngine.appendString(sb, node.id);
+    sb.append(",\"name\":");
+    ComparisonEngine.appendString(sb, node.name);
+    sb.append(",\"state\":");
+    ComparisonEngine.appendString(sb, node.state);
+    sb.append(",\"parent\":");
+    if (node.parent == null) {
+      sb.append("null");
+    } else {
+      ComparisonEngine.appendString(sb, node.parent.id);
+    }
+    sb.append(",\"rows\":").append(node.rows);
+
+    if (countryId >= 0) {
+      double salary = engine.salary(statistic, countryId);
+      sb.append(",\"nationality\":");
+      ComparisonEngine.appendString(sb, engine.country(countryId));
+      sb.append(",\"statistic\":\"").append(statistic.key()).append("\",\"salary\":");
+      ComparisonEngine.appendNumber(sb, salary);
+      sb.append(",\"ratio\":");
+      ComparisonEngine.appendNumber(sb, salary / node.meanTotal());
+    }
+
+    sb.append(",\"columns\":{");
+    for (int i = 0; i < WIDTH; i++) {
+      if (i > 0) sb.append(',');
+      sb.append('"').append(COLUMNS[i]).append("\":{\"mean\":");
+      ComparisonEngine.appendNumber(sb, node.mean[i]);
+      sb.append(",\"median\":");
+      ComparisonEngine.appendNumber(sb, node.median[i]);
+      sb.append(",\"min\":");
+      ComparisonEngine.appendNumber(sb, node.min[i]);
+      sb.append(",\"max\":");
+      ComparisonEngine.appendNumber(sb, node.max[i]);
+      sb.append('}');
+    }
+    sb.append("},\"children\":[");
+    for (int i = 0; i < node.children.size(); i++) {
+      if (i > 0) sb.append(',');
+      ComparisonEngine.appendString(sb, node.children.get(i).id);
+    }
+    return sb.append("]}").toString();
+  }
+}
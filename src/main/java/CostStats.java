@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Running statistics for the cost columns of one state, updated one row at a time
+// with Welford's method so nothing but these arrays is kept while loading.
+public final class CostStats {
+
+  // Columns 6-12 of the detailed cost-of-living CSV, in file order
+  public static final String[] COLUMNS = {
+          "housing", "food", "transportation", "healthcare", "other_necessities", "childcare", "taxes"
+  };
+  public static final int FIRST_CSV_COLUMN = 6;
+
+  private long count;
+  private final double[] mean = new double[COLUMNS.length];
+  private final double[] m2 = new double[COLUMNS.length]; // sum of squared distances from the mean
+  private final double[] min = new double[COLUMNS.length];
+  private final double[] max = new double[COLUMNS.length];
+
+  public CostStats() {
+  }
+
+  // Restores statistics saved by BinarySnapshot
+  static CostStats of(long count, double[] mean, double[] m2, double[] min, double[] max) {
+    CostStats stats = new CostStats();
+    stats.count = count;
+    System.arraycopy(mean, 0, stats.mean, 0, COLUMNS.length);
+    System.arraycopy(m2, 0, stats.m2, 0, COLUMNS.length);
+    System.arraycopy(min, 0, stats.min, 0, COLUMNS.length);
+    System.arraycopy(max, 0, stats.max, 0, COLUMNS.length);
+    return stats;
+  }
+
+  public void add(double[] row) {
+    count++;
+    for (int i = 0; i < COLUMNS.length; i++) {
+      double x = row[i];
+      double delta = x - mean[i];
+      mean[i] += delta / count;
+      m2[i] += delta * (x - mean[i]);
+
+      if (count == 1 || x < min[i]) min[i] = x;
+      if (count == 1 || x > max[i]) max[i] = x;
+    }
+  }
+
+  // Combines statistics gathered over separate row ranges (Chan et al. parallel update)
+  public void merge(CostStats other) {
+    if (other.count == 0) return;
+    if (count == 0) {
+      count = other.count;
+      System.arraycopy(other.mean, 0, mean, 0, COLUMNS.length);
+      System.arraycopy(other.m2, 0, m2, 0, COLUMNS.length);
+      System.arraycopy(other.min, 0, min, 0, COLUMNS.length);
+      System.arraycopy(other.max, 0, max, 0, COLUMNS.length);
+      return;
+    }
+
+    long total = count + other.count;
+    for (int i = 0; i < COLUMNS.length; i++) {
+      double delta = other.mean[i] - mean[i];
+      mean[i] += delta * other.count / total;
+      m2[i] += other.m2[i] + delta * delta * ((double) count * other.count / total);
+      min[i] = Math.min(min[i], other.min[i]);
+      max[i] = Math.max(max[i], other.max[i]);
+    }
+    count = total;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public double mean(int column) {
+    return mean[column];
+  }
+
+  double m2(int column) {
+    return m2[column];
+  }
+
+  // Sample variance, 0 when there is a single row
+  public double variance(int column) {
+    return count > 1 ? m2[column] / (count - 1) : 0.0;
+  }
+
+  public double stdDev(int column) {
+    return Math.sqrt(variance(column));
+  }
+
+  public double min(int column) {
+    return min[column];
+  }
+
+  public double max(int column) {
+    return max[column];
+  }
+
+  public List<Double> means() {
+    List<Double> values = new ArrayList<>(COLUMNS.length);
+    for (double value : mean) {
+      values.add(value);
+    }
+    return values;
+  }
+
+  public static int columnIndex(String name) {
+    for (int i = 0; i < COLUMNS.length; i++) {
+      if (COLUMNS[i].equalsIgnoreCase(name)) return i;
+    }
+    return -1;
+  }
+}
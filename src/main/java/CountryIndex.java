@@ -0,0 +1,116 @@
+import java.text.Normalizer;
+import java.util.*;
+
+// Forgiving country-name lookups, built once per engine. Names are folded to lower case
+// without accents or punctuation, so "cote d'ivoire", "Côte D'Ivoire" and "COTE DIVOIRE"
+// all find the same country. Autocomplete binary-searches sorted arrays of folded names
+// and of every later word in a name ("kingdom" finds United Kingdom).
+public final class CountryIndex {
+
+  private final String[] countries;
+  private final Map<String, Integer> folded;
+  private final String[] nameKeys; // sorted folded names
+  private final int[] nameIds;
+  private final String[] wordKeys; // sorted folded names from their second word on
+  private final int[] wordIds;
+
+  private CountryIndex(String[] countries) {
+    this.countries = countries;
+    this.folded = new HashMap<>(countries.length * 2);
+    List<Map.Entry<String, Integer>> names = new ArrayList<>(countries.length);
+    List<Map.Entry<String, Integer>> words = new ArrayList<>(countries.length);
+    for (int id = 0; id < countries.length; id++) {
+      String key = fold(countries[id]);
+      folded.putIfAbsent(key, id);
+      names.add(Map.entry(key, id));
+      for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+        words.add(Map.entry(key.substring(i + 1), id));
+      }
+    }
+    Comparator<Map.Entry<String, Integer>> order = Map.Entry.comparingByKey();
+    names.sort(order.thenComparing(Map.Entry.comparingByValue()));
+    words.sort(order.thenComparing(Map.Entry.comparingByValue()));
+
+    nameKeys = names.stream().map(Map.Entry::getKey).toArray(String[]::new);
+    nameIds = names.stream().mapToInt(Map.Entry::getValue).toArray();
+    wordKeys = words.stream().map(Map.Entry::getKey).toArray(String[]::new);
+    wordIds = words.stream().mapToInt(Map.Entry::getValue).toArray();
+  }
+
+  // countries are indexed by their position, i.e. the engine's country ids
+  public static CountryIndex build(String[] countries) {
+    return new CountryIndex(countries);
+  }
+
+  // Lower case, accents removed, apostrophes and dots dropped, other separators as one space
+  static String fold(String name) {
+    String text = name;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) > 0x7F) {
+        text = Normalizer.normalize(text, Normalizer.Form.NFD);
+        break;
+      }
+    }
+    StringBuilder sb = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (Character.isLetterOrDigit(ch)) {
+        if (space && sb.length() > 0) sb.append(' ');
+        sb.append(Character.toLowerCase(ch));
+        space = false;
+      } else if (ch == '\'' || ch == '’' || ch == '.' || Character.getType(ch) == Character.NON_SPACING_MARK) {
+        // dropped without separating words
+      } else {
+        space = true;
+      }
+    }
+    return sb.toString();
+  }
+
+  // Returns -1 when no country folds to the same name
+  public int lookup(String name) {
+    if (name == null) {
+      return -1;
+    }
+    Integer id = folded.get(fold(name));
+    return id == null ? -1 : id;
+  }
+
+  // Up to limit country names starting with the query, then names with a later word
+  // starting with it; each group alphabetical
+  public List<String> suggest(String query, int limit) {
+    if (limit <= 0) {
+      return new ArrayList<>();
+    }
+    String prefix = fold(query);
+    List<String> suggestions = new ArrayList<>(Math.min(limit, 16));
+    if (prefix.isEmpty()) {
+      return suggestions;
+    }
+    BitSet seen = new BitSet(countries.length);
+    collect(nameKeys, nameIds, prefix, limit, seen, suggestions);
+    collect(wordKeys, wordIds, prefix, limit, seen, suggestions);
+    return suggestions;
+  }
+
+  private void collect(String[] keys, int[] ids, String prefix, int limit, BitSet seen, List<String> out) {
+    // First key >= prefix; Arrays.binarySearch may land anywhere among equal keys
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (keys[mid].compareTo(prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < keys.length && out.size() < limit && keys[i].startsWith(prefix); i++) {
+      if (!seen.get(ids[i])) {
+        seen.set(ids[i]);
+        out.add(countries[ids[i]]);
+      }
+    }
+  }
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+// Single-pass, quote-aware CSV reader working on raw bytes.
+// Each row is handed to the handler as a view over a reused byte buffer, so fields
+// only become Strings when the handler asks for one and numbers are parsed in place.
+public final class CsvParser {
+
+  public interface RowHandler {
+    void row(Row row);
+  }
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  // Powers of ten that are exact doubles, used by the fast number path
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+  }
+
+  private CsvParser() {
+  }
+
+  // Reads the whole stream and returns the number of rows seen (header included).
+  // Blank lines are skipped. The stream is not closed.
+  public static long parse(InputStream in, RowHandler handler) throws IOException {
+    Row row = new Row();
+    byte[] chunk = new byte[CHUNK_SIZE];
+    boolean inQuotes = false;
+    boolean afterQuote = false; // just closed a quoted section, a '"' now means an escaped quote
+
+    int n;
+    while ((n = in.read(chunk)) != -1) {
+      for (int i = 0; i < n; i++) {
+        byte b = chunk[i];
+        if (inQuotes) {
+          if (b == '"') {
+            inQuotes = false;
+            afterQuote = true;
+          } else {
+            row.append(b);
+          }
+          continue;
+        }
+
+        switch (b) {
+          case '"':
+            if (afterQuote) row.append(b);
+            inQuotes = true;
+            afterQuote = false;
+            break;
+          case ',':
+            row.endField();
+            afterQuote = false;
+            break;
+          case '\n':
+            row.endField();
+            row.endRow(handler);
+            afterQuote = false;
+            break;
+          case '\r':
+            break;
+          default:
+            row.append(b);
+            afterQuote = false;
+        }
+      }
+    }
+
+    if (row.hasPendingData()) {
+      row.endField();
+      row.endRow(handler);
+    }
+    return row.number;
+  }
+
+  public static final class Row {
+    private byte[] data = new byte[256];
+    private int length;
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private int fieldStart;
+    private long number = 0;
+
+    private Row() {
+    }
+
+    private void append(byte b) {
+      if (length == data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      data[length++] = b;
+    }
+
+    private void endField() {
+      if (fieldCount == fieldEnds.length) {
+        fieldEnds = Arrays.copyOf(fieldEnds, fieldEnds.length * 2);
+      }
+      fieldEnds[fieldCount++] = length;
+      fieldStart = length;
+    }
+
+    private boolean hasPendingData() {
+      return fieldCount > 0 || length > fieldStart;
+    }
+
+    private void endRow(RowHandler handler) {
+      // A blank line shows up as a single empty field
+      if (!(fieldCount == 1 && length == 0)) {
+        handler.row(this);
+        number++;
+      }
+      length = 0;
+      fieldCount = 0;
+      fieldStart = 0;
+    }
+
+    // Zero-based index of this row in the file, 0 is the header
+    public long number() {
+      return number;
+    }
+
+    public int fieldCount() {
+      return fieldCount;
+    }
+
+    // Fields past the end of this row throw IndexOutOfBoundsException; fieldEnds still holds
+    // stale entries from earlier, longer rows there. Only ASCII whitespace and control bytes
+    // are trimmed: bytes of multibyte UTF-8 characters are negative as signed bytes.
+    private int start(int field) {
+      Objects.checkIndex(field, fieldCount);
+      int start = field == 0 ? 0 : fieldEnds[field - 1];
+      int end = fieldEnds[field];
+      while (start < end && (data[start] & 0xFF) <= ' ') start++;
+      return start;
+    }
+
+    private int end(int field) {
+      Objects.checkIndex(field, fieldCount);
+      int start = field == 0 ? 0 : fieldEnds[field - 1];
+      int end = fieldEnds[field];
+      while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+      return end;
+    }
+
+    // Field value with surrounding whitespace and quotes removed
+    public String getString(int field) {
+      int start = start(field);
+      return new String(data, start, end(field) - start, StandardCharsets.UTF_8);
+    }
+
+    public boolean isEmpty(int field) {
+      return start(field) == end(field);
+    }
+
+    // Same accepted syntax as Double.parseDouble on the trimmed field
+    public double getDouble(int field) {
+      int start = start(field);
+      int end = end(field);
+      double value = parseFast(data, start, end, false);
+      if (Double.isNaN(value)) {
+        return Double.parseDouble(new String(data, start, end - start, StandardCharsets.US_ASCII));
+      }
+      return value;
+    }
+
+    // Ignores everything except digits and '.', so "$1,234.50" reads as 1234.5
+    public double getLenientDouble(int field) {
+      int start = start(field);
+      int end = end(field);
+      double value = parseFast(data, start, end, true);
+      if (Double.isNaN(value)) {
+        StringBuilder kept = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+          byte b = data[i];
+          if ((b >= '0' && b <= '9') || b == '.') kept.append((char) b);
+        }
+        return Double.parseDouble(kept.toString());
+      }
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < fieldCount; i++) {
+        if (i > 0) sb.append(',');
+        sb.append(getString(i));
+      }
+      return sb.toString();
+    }
+  }
+
+  // Plain decimals whose digits fit in a double's 53-bit mantissa and whose scale is an exact
+  // power of ten are converted with a single division, which rounds exactly
+  // like Double.parseDouble. Anything else (exponents, long mantissas, junk) returns NaN
+  // so the caller can fall back to the JDK parser.
+  static double parseFast(byte[] data, int start, int end, boolean lenient) {
+    int i = start;
+    boolean negative = false;
+    if (!lenient && i < end && (data[i] == '-' || data[i] == '+')) {
+      negative = data[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean seenDigit = false;
+    boolean seenDot = false;
+    for (; i < end; i++) {
+      byte b = data[i];
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (digits > 0 || b != '0') digits++;
+        if (digits > 18) return Double.NaN; // would overflow the long
+        mantissa = mantissa * 10 + (b - '0');
+        if (seenDot) scale++;
+      } else if (b == '.' && !seenDot) {
+        seenDot = true;
+      } else if (!lenient || b == '.') {
+        return Double.NaN;
+      }
+    }
+
+    if (!seenDigit || mantissa > (1L << 53) || scale >= POWERS_OF_TEN.length) {
+      return Double.NaN;
+    }
+
+    double value = (double) mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+}
@@ -0,0 +1,108 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Everything a request reads, loaded together and never modified afterwards.
+// Reloading builds a complete new snapshot and publishes it with a single reference
+// swap, so a request either sees all of the old data or all of the new data.
+public final class DataSnapshot {
+
+  private final long version;
+  private final long loadedAtMillis;
+  private final SalaryTable salaries;
+  private final Map<String, Double> countryToSalary; // default statistic
+  private final Map<String, Double> stateToCost;
+  private final Map<String, List<Double>> stateCostDetails;
+  private final Map<String, CostStats> stateCostStats;
+  private final CostDetails costDetails;
+  private final CostHierarchy costHierarchy;
+  private final ComparisonEngine engine;
+  private final ResponseCache responseCache;
+  private final ChoroplethMap choroplethMap;
+  private final RankingIndex rankingIndex;
+  private final AffordabilityIndex affordabilityIndex;
+  private final AffordabilitySimulation simulation;
+
+  DataSnapshot(long version, SalaryTable salaries, Map<String, Double> stateToCost,
+               CostDetails costDetails, ResponseCache.Mode responseCacheMode) {
+    this.version = version;
+    this.loadedAtMillis = System.currentTimeMillis();
+    this.salaries = salaries;
+    this.countryToSalary = Collections.unmodifiableMap(salaries.toMap(SalaryStatistic.DEFAULT));
+    this.stateToCost = Collections.unmodifiableMap(stateToCost);
+    this.costDetails = costDetails;
+    this.stateCostStats = Collections.unmodifiableMap(costDetails.byState());
+    this.stateCostDetails = Collections.unmodifiableMap(ComparisonServer.costMeans(stateCostStats));
+    this.costHierarchy = costDetails.hierarchy();
+
+    this.engine = ComparisonEngine.build(salaries, this.stateToCost, this.stateCostDetails, costDetails.byFamily());
+    this.responseCache = ResponseCache.create(engine, responseCacheMode);
+    this.choroplethMap = ChoroplethMap.create(engine);
+    this.rankingIndex = RankingIndex.build(engine);
+    this.affordabilityIndex = AffordabilityIndex.build(engine);
+    this.simulation = AffordabilitySimulation.create(engine, costHierarchy);
+  }
+
+  public long version() {
+    return version;
+  }
+
+  public long loadedAtMillis() {
+    return loadedAtMillis;
+  }
+
+  public SalaryTable salaries() {
+    return salaries;
+  }
+
+  // Yearly salary for the default statistic
+  public Map<String, Double> countryToSalary() {
+    return countryToSalary;
+  }
+
+  public Map<String, Double> stateToCost() {
+    return stateToCost;
+  }
+
+  public Map<String, List<Double>> stateCostDetails() {
+    return stateCostDetails;
+  }
+
+  public Map<String, CostStats> stateCostStats() {
+    return stateCostStats;
+  }
+
+  // Includes the per-family statistics; must not be modified
+  public CostDetails costDetails() {
+    return costDetails;
+  }
+
+  public CostHierarchy costHierarchy() {
+    return costHierarchy;
+  }
+
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  // null when the response cache is turned off
+  public ResponseCache responseCache() {
+    return responseCache;
+  }
+
+  public ChoroplethMap choroplethMap() {
+    return choroplethMap;
+  }
+
+  public RankingIndex rankingIndex() {
+    return rankingIndex;
+  }
+
+  public AffordabilityIndex affordabilityIndex() {
+    return affordabilityIndex;
+  }
+
+  public AffordabilitySimulation simulation() {
+    return simulation;
+  }
+}
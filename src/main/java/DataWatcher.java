@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches the data directory and triggers a background reload when a CSV changes.
+// Events are debounced so a file that is still being copied is only parsed once it
+// has been quiet for a while.
+public final class DataWatcher implements Runnable {
+
+  private final Path directory;
+  private final long debounceMillis;
+  private final Runnable reload;
+
+  private DataWatcher(Path directory, long debounceMillis, Runnable reload) {
+    this.directory = directory;
+    this.debounceMillis = debounceMillis;
+    this.reload = reload;
+  }
+
+  public static void start(Path directory, long debounceMillis, Runnable reload) {
+    Thread thread = new Thread(new DataWatcher(directory, debounceMillis, reload), "data-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run() {
+    try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+      directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      System.out.println("👀 Watching " + directory.toAbsolutePath() + " for data changes");
+
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = watchService.take();
+        boolean changed = drain(key);
+
+        // Keep collecting events until the directory has been quiet for the debounce period
+        while (changed) {
+          WatchKey next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+          if (next == null) break;
+          drain(next);
+        }
+
+        if (changed) {
+          try {
+            reload.run();
+          } catch (RuntimeException e) {
+            System.err.println("Error reloading data: " + e.getMessage());
+            e.printStackTrace();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      System.err.println("Error watching data directory " + directory + ": " + e.getMessage());
+    }
+  }
+
+  private static boolean drain(WatchKey key) {
+    boolean csvChanged = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      Object context = event.context();
+      if (event.kind() == OVERFLOW || (context != null && context.toString().endsWith(".csv"))) {
+        csvChanged = true;
+      }
+    }
+    key.reset();
+    return csvChanged;
+  }
+}
@@ -0,0 +1,285 @@
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// HTML pages parsed once into UTF-8 byte segments with typed slots in between:
+//   {{name}}         text, HTML-escaped
+//   {{name:number}}  a double as Double.toString writes it
+//   {{name:fixed}}   a double with two decimals, as %.2f writes it (always with a '.')
+//   {{name:html}}    trusted markup, copied as is
+// A page is rendered by filling the slots in order into a pooled Buffer, which then goes to
+// the response in one write with a Content-Length. Several templates can be rendered into
+// the same buffer one after another.
+public final class HtmlTemplate {
+
+  private enum Slot { TEXT, NUMBER, FIXED, HTML }
+
+  private final String source;
+  private final byte[][] literals; // one more than there are slots
+  private final Slot[] slots;
+  private final String[] names;
+
+  private HtmlTemplate(String source, byte[][] literals, Slot[] slots, String[] names) {
+    this.source = source;
+    this.literals = literals;
+    this.slots = slots;
+    this.names = names;
+  }
+
+  public static HtmlTemplate compile(String source) {
+    List<byte[]> literals = new ArrayList<>();
+    List<Slot> slots = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    int from = 0;
+    while (true) {
+      int open = source.indexOf("{{", from);
+      if (open < 0) break;
+      int close = source.indexOf("}}", open);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unclosed slot at " + open + ": " + source);
+      }
+      literals.add(source.substring(from, open).getBytes(StandardCharsets.UTF_8));
+      String slot = source.substring(open + 2, close).trim();
+      int colon = slot.indexOf(':');
+      names.add(colon < 0 ? slot : slot.substring(0, colon));
+      slots.add(colon < 0 ? Slot.TEXT : Slot.valueOf(slot.substring(colon + 1).trim().toUpperCase()));
+      from = close + 2;
+    }
+    literals.add(source.substring(from).getBytes(StandardCharsets.UTF_8));
+    return new HtmlTemplate(source, literals.toArray(new byte[0][]), slots.toArray(new Slot[0]),
+            names.toArray(new String[0]));
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+
+  // Growable byte buffer that is reused across requests
+  public static final class Buffer {
+
+    private static final int POOL_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final ArrayBlockingQueue<Buffer> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // %.2f is computed from cents when the value is small enough for value * 100 to be exact to
+    // well under a cent, and the fraction is not close to the half cent where rounding flips
+    private static final double FAST_FIXED_LIMIT = 1e7;
+    private static final double HALF_CENT_MARGIN = 1e-4;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+    private HtmlTemplate template; // being rendered
+    private int slot;
+
+    private Buffer() {
+    }
+
+    public static Buffer acquire() {
+      Buffer buffer = pool.poll();
+      return buffer != null ? buffer : new Buffer();
+    }
+
+    public void release() {
+      size = 0;
+      template = null;
+      if (bytes.length <= MAX_POOLED_CAPACITY) {
+        pool.offer(this);
+      }
+    }
+
+    public Buffer begin(HtmlTemplate next) {
+      if (template != null) {
+        throw new IllegalStateException("Template not finished: " + template);
+      }
+      template = next;
+      slot = 0;
+      write(next.literals[0]);
+      return this;
+    }
+
+    public Buffer text(String value) {
+      expect(Slot.TEXT);
+      escape(value);
+      return next();
+    }
+
+    public Buffer html(String value) {
+      expect(Slot.HTML);
+      utf8(value);
+      return next();
+    }
+
+    public Buffer number(double value) {
+      expect(Slot.NUMBER);
+      ascii(Double.toString(value));
+      return next();
+    }
+
+    public Buffer fixed(double value) {
+      expect(Slot.FIXED);
+      fixed2(value);
+      return next();
+    }
+
+    public Buffer end() {
+      if (template == null || slot != template.slots.length) {
+        throw new IllegalStateException("Slots left unfilled in " + template);
+      }
+      template = null;
+      return this;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    // Sends the rendered bytes as the whole response body
+    public void writeTo(HttpServletResponse response) throws IOException {
+      if (template != null) {
+        throw new IllegalStateException("Template not finished: " + template);
+      }
+      response.setContentLength(size);
+      response.getOutputStream().write(bytes, 0, size);
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void expect(Slot type) {
+      if (template == null || slot >= template.slots.length || template.slots[slot] != type) {
+        throw new IllegalStateException("Expected " + (template == null || slot >= template.slots.length
+                ? "no slot" : "{{" + template.names[slot] + ":" + template.slots[slot].name().toLowerCase() + "}}")
+                + " but got a " + type.name().toLowerCase() + " value in " + template);
+      }
+    }
+
+    private Buffer next() {
+      slot++;
+      write(template.literals[slot]);
+      return this;
+    }
+
+    private void ensure(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+
+    private void write(byte[] literal) {
+      ensure(literal.length);
+      System.arraycopy(literal, 0, bytes, size, literal.length);
+      size += literal.length;
+    }
+
+    private void ascii(String value) {
+      ensure(value.length());
+      for (int i = 0; i < value.length(); i++) bytes[size++] = (byte) value.charAt(i);
+    }
+
+    private void escape(String value) {
+      ensure(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        char ch = value.charAt(i);
+        switch (ch) {
+          case '&': ascii("&amp;"); break;
+          case '<': ascii("&lt;"); break;
+          case '>': ascii("&gt;"); break;
+          case '"': ascii("&quot;"); break;
+          case '\'': ascii("&#39;"); break;
+          default:
+            if (ch < 0x80) {
+              ensure(1);
+              bytes[size++] = (byte) ch;
+            } else {
+              i = utf8(value, i);
+            }
+        }
+      }
+    }
+
+    private void utf8(String value) {
+      ensure(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        char ch = value.charAt(i);
+        if (ch < 0x80) {
+          ensure(1);
+          bytes[size++] = (byte) ch;
+        } else {
+          i = utf8(value, i);
+        }
+      }
+    }
+
+    // Encodes the non-ASCII char at i (and its low surrogate) and returns the last index used;
+    // a lone surrogate becomes '?' like String.getBytes does
+    private int utf8(String value, int i) {
+      ensure(4);
+      char ch = value.charAt(i);
+      if (ch < 0x800) {
+        bytes[size++] = (byte) (0xC0 | ch >> 6);
+        bytes[size++] = (byte) (0x80 | ch & 0x3F);
+      } else if (!Character.isSurrogate(ch)) {
+        bytes[size++] = (byte) (0xE0 | ch >> 12);
+        bytes[size++] = (byte) (0x80 | ch >> 6 & 0x3F);
+        bytes[size++] = (byte) (0x80 | ch & 0x3F);
+      } else if (Character.isHighSurrogate(ch) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(ch, value.charAt(++i));
+        bytes[size++] = (byte) (0xF0 | cp >> 18);
+        bytes[size++] = (byte) (0x80 | cp >> 12 & 0x3F);
+        bytes[size++] = (byte) (0x80 | cp >> 6 & 0x3F);
+        bytes[size++] = (byte) (0x80 | cp & 0x3F);
+      } else {
+        bytes[size++] = '?';
+      }
+      return i;
+    }
+
+    private void fixed2(double value) {
+      double magnitude = Math.abs(value);
+      double scaled = magnitude * 100;
+      double fraction = scaled - Math.floor(scaled);
+      if (!(magnitude < FAST_FIXED_LIMIT) || Math.abs(fraction - 0.5) < HALF_CENT_MARGIN) {
+        // NaN, infinities, huge values and near-ties; %.2f rounds the shortest decimal form
+        // of the value (what Double.toString prints) half up, so 1.005 becomes 1.01
+        if (Double.isNaN(value)) {
+          ascii("NaN");
+        } else {
+          ascii(value < 0 ? "-" : "");
+          ascii(Double.isInfinite(value) ? "Infinity"
+                  : BigDecimal.valueOf(magnitude).setScale(2, RoundingMode.HALF_UP).toPlainString());
+        }
+        return;
+      }
+      long cents = (long) Math.floor(scaled + 0.5);
+      ensure(24);
+      if (Double.doubleToRawLongBits(value) < 0) bytes[size++] = '-';
+      digits(cents / 100);
+      bytes[size++] = '.';
+      bytes[size++] = (byte) ('0' + cents / 10 % 10);
+      bytes[size++] = (byte) ('0' + cents % 10);
+    }
+
+    private void digits(long value) {
+      int start = size;
+      do {
+        bytes[size++] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      for (int i = start, j = size - 1; i < j; i++, j--) {
+        byte swap = bytes[i];
+        bytes[i] = bytes[j];
+        bytes[j] = swap;
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear latency histogram in microseconds: 16 buckets per power of two, so any
+// recorded value is reported within ~6%. Recording is a single atomic increment on a
+// per-thread stripe, so request threads never contend on the same cache line.
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+  private static final int PADDING = 8; // longs per cache line, between per-stripe totals
+
+  private final int stripeMask;
+  private final AtomicLongArray counts; // [stripe][bucket], each stripe contiguous
+  private final AtomicLongArray totals; // per stripe: count at s * PADDING, sum at s * PADDING + 1
+
+  public LatencyHistogram() {
+    int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) * 2;
+    stripes = Math.min(stripes, 16);
+    this.stripeMask = stripes - 1;
+    this.counts = new AtomicLongArray(stripes * BUCKETS);
+    this.totals = new AtomicLongArray(stripes * PADDING);
+  }
+
+  public void recordNanos(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    counts.incrementAndGet(stripe * BUCKETS + bucket(micros));
+    totals.incrementAndGet(stripe * PADDING);
+    totals.addAndGet(stripe * PADDING + 1, micros);
+  }
+
+  static int bucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // Midpoint of the bucket's range
+  static long value(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lower + ((1L << shift) >>> 1);
+  }
+
+  // Merges the stripes; concurrent recording may make the snapshot slightly inconsistent
+  public Snapshot snapshot() {
+    long[] merged = new long[BUCKETS];
+    for (int i = 0; i < counts.length(); i++) {
+      merged[i % BUCKETS] += counts.get(i);
+    }
+    long count = 0;
+    long sum = 0;
+    for (int s = 0; s <= stripeMask; s++) {
+      count += totals.get(s * PADDING);
+      sum += totals.get(s * PADDING + 1);
+    }
+    return new Snapshot(merged, count, sum);
+  }
+
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sumMicros;
+
+    private Snapshot(long[] counts, long count, long sumMicros) {
+      this.counts = counts;
+      this.count = count;
+      this.sumMicros = sumMicros;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long sumMicros() {
+      return sumMicros;
+    }
+
+    // Latency in microseconds at quantile q (0..1); 0 when nothing was recorded
+    public long quantileMicros(double q) {
+      long total = 0;
+      for (long c : counts) total += c;
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * total));
+      long seen = 0;
+      for (int b = 0; b < counts.length; b++) {
+        seen += counts[b];
+        if (seen >= rank) {
+          return value(b);
+        }
+      }
+      return value(counts.length - 1);
+    }
+  }
+}
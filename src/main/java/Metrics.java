@@ -0,0 +1,235 @@
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+import spark.route.HttpMethod;
+import spark.routematch.RouteMatch;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-route request metrics and data-load timings, exposed in Prometheus text format.
+// A before filter stamps the start time and resolves the route template; an afterAfter
+// filter (which also runs when a handler throws) records latency and status.
+public final class Metrics {
+
+  private static final String START_ATTRIBUTE = "metrics.start";
+  private static final String ROUTE_ATTRIBUTE = "metrics.route";
+  private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+  // Route label ("POST /compare") -> metrics; filled once in install(), then only read
+  private static final Map<String, RouteMetrics> exactRoutes = new HashMap<>();
+  private static final List<RouteMetrics> templateRoutes = new ArrayList<>();
+  private static final RouteMetrics unmatched = new RouteMetrics("unmatched", null, null);
+  private static final List<RouteMetrics> allRoutes = new ArrayList<>();
+
+  private static final Map<String, LoadMetrics> loads = new ConcurrentHashMap<>();
+
+  private static final class RouteMetrics {
+    final String label;
+    final String method;
+    final String[] segments; // null for exact routes
+    final LatencyHistogram latency = new LatencyHistogram();
+    final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    RouteMetrics(String label, String method, String[] segments) {
+      this.label = label;
+      this.method = method;
+      this.segments = segments;
+    }
+
+    // Spark's rules: ":name" matches one path segment, "*" matches the rest
+    boolean matches(String requestMethod, String[] path) {
+      if (!method.equals(requestMethod)) return false;
+      for (int i = 0; i < segments.length; i++) {
+        if (segments[i].equals("*")) return true;
+        if (i >= path.length) return false;
+        if (!segments[i].startsWith(":") && !segments[i].equals(path[i])) return false;
+      }
+      return segments.length == path.length;
+    }
+  }
+
+  private static final class LoadMetrics {
+    final LongAdder count = new LongAdder();
+    volatile long rows;
+    volatile long nanos;
+  }
+
+  private Metrics() {
+  }
+
+  // Call after every route is defined
+  public static synchronized void install() {
+    for (RouteMatch route : Spark.routes()) {
+      HttpMethod method = route.getHttpMethod();
+      if (method == HttpMethod.before || method == HttpMethod.after || method == HttpMethod.afterafter) {
+        continue;
+      }
+      String methodName = method.name().toUpperCase();
+      String label = methodName + " " + route.getMatchUri();
+      if (exactRoutes.containsKey(label) || templateRoutes.stream().anyMatch(r -> r.label.equals(label))) {
+        continue; // the same path registered twice; Spark serves the first one
+      }
+      RouteMetrics metrics;
+      if (route.getMatchUri().contains(":") || route.getMatchUri().contains("*")) {
+        metrics = new RouteMetrics(label, methodName, split(route.getMatchUri()));
+        templateRoutes.add(metrics);
+      } else {
+        metrics = new RouteMetrics(label, methodName, null);
+        exactRoutes.put(label, metrics);
+      }
+      allRoutes.add(metrics);
+    }
+    allRoutes.add(unmatched);
+
+    Spark.before((req, res) -> {
+      req.attribute(START_ATTRIBUTE, System.nanoTime());
+      req.attribute(ROUTE_ATTRIBUTE, resolve(req.requestMethod(), req.pathInfo()));
+    });
+    Spark.afterAfter(Metrics::record);
+  }
+
+  private static String[] split(String path) {
+    String trimmed = path.startsWith("/") ? path.substring(1) : path;
+    return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+  }
+
+  private static RouteMetrics resolve(String method, String path) {
+    RouteMetrics exact = exactRoutes.get(method + " " + path);
+    if (exact != null) {
+      return exact;
+    }
+    if (!templateRoutes.isEmpty()) {
+      String[] segments = split(path);
+      for (RouteMetrics route : templateRoutes) {
+        if (route.matches(method, segments)) return route;
+      }
+    }
+    return unmatched;
+  }
+
+  private static void record(Request req, Response res) {
+    Long start = req.attribute(START_ATTRIBUTE);
+    RouteMetrics route = req.attribute(ROUTE_ATTRIBUTE);
+    if (start == null || route == null) {
+      return;
+    }
+    route.latency.recordNanos(System.nanoTime() - start);
+    int status = res.status() > 0 ? res.status() : 200;
+    route.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+  }
+
+  // Whether a lookup found data for the requested state and nationality
+  public static void lookup(Request req, boolean found) {
+    RouteMetrics route = req.attribute(ROUTE_ATTRIBUTE);
+    if (route == null) {
+      return;
+    }
+    (found ? route.hits : route.misses).increment();
+  }
+
+  public static void recordLoad(String fileName, long rows, long nanos) {
+    LoadMetrics load = loads.computeIfAbsent(fileName, f -> new LoadMetrics());
+    load.count.increment();
+    load.rows = rows;
+    load.nanos = nanos;
+  }
+
+  public static String prometheus(DataSnapshot data) {
+    StringBuilder out = new StringBuilder(4096);
+
+    header(out, "maddata_request_latency_seconds", "summary", "Request latency per route");
+    for (RouteMetrics route : allRoutes) {
+      LatencyHistogram.Snapshot latency = route.latency.snapshot();
+      if (latency.count() == 0) continue;
+      for (double q : QUANTILES) {
+        out.append("maddata_request_latency_seconds{route=\"").append(route.label)
+                .append("\",quantile=\"").append(q).append("\"} ")
+                .append(latency.quantileMicros(q) / 1e6).append('\n');
+      }
+      sample(out, "maddata_request_latency_seconds_sum", route, latency.sumMicros() / 1e6);
+      sample(out, "maddata_request_latency_seconds_count", route, latency.count());
+    }
+
+    header(out, "maddata_requests_total", "counter", "Requests per route and HTTP status");
+    for (RouteMetrics route : allRoutes) {
+      for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(route.statuses).entrySet()) {
+        out.append("maddata_requests_total{route=\"").append(route.label)
+                .append("\",status=\"").append(status.getKey()).append("\"} ")
+                .append(status.getValue().sum()).append('\n');
+      }
+    }
+
+    header(out, "maddata_lookups_total", "counter", "State/nationality lookups; miss means \"Data not found\"");
+    for (RouteMetrics route : allRoutes) {
+      if (route.hits.sum() + route.misses.sum() == 0) continue;
+      out.append("maddata_lookups_total{route=\"").append(route.label).append("\",result=\"hit\"} ")
+              .append(route.hits.sum()).append('\n');
+      out.append("maddata_lookups_total{route=\"").append(route.label).append("\",result=\"miss\"} ")
+              .append(route.misses.sum()).append('\n');
+    }
+
+    header(out, "maddata_data_load_seconds", "gauge", "Duration of the last load of each data file");
+    for (Map.Entry<String, LoadMetrics> load : new TreeMap<>(loads).entrySet()) {
+      out.append("maddata_data_load_seconds{file=\"").append(load.getKey()).append("\"} ")
+              .append(load.getValue().nanos / 1e9).append('\n');
+    }
+    header(out, "maddata_data_load_rows", "gauge", "Rows parsed in the last load of each data file");
+    for (Map.Entry<String, LoadMetrics> load : new TreeMap<>(loads).entrySet()) {
+      out.append("maddata_data_load_rows{file=\"").append(load.getKey()).append("\"} ")
+              .append(load.getValue().rows).append('\n');
+    }
+    header(out, "maddata_data_loads_total", "counter", "Loads of each data file");
+    for (Map.Entry<String, LoadMetrics> load : new TreeMap<>(loads).entrySet()) {
+      out.append("maddata_data_loads_total{file=\"").append(load.getKey()).append("\"} ")
+              .append(load.getValue().count.sum()).append('\n');
+    }
+
+    header(out, "maddata_ready", "gauge", "1 once data is loaded and the warm-up is done");
+    out.append("maddata_ready ").append(Startup.isReady() ? 1 : 0).append('\n');
+    header(out, "maddata_startup_phase_seconds", "gauge", "Duration of each finished startup phase");
+    for (Map.Entry<String, Long> phase : Startup.phaseMillis().entrySet()) {
+      out.append("maddata_startup_phase_seconds{phase=\"").append(phase.getKey()).append("\"} ")
+              .append(phase.getValue() / 1e3).append('\n');
+    }
+
+    header(out, "maddata_snapshot_version", "gauge", "Version of the published data snapshot");
+    out.append("maddata_snapshot_version ").append(data != null ? data.version() : 0).append('\n');
+
+    header(out, "maddata_response_cache_hits_total", "counter", "Response cache hits");
+    out.append("maddata_response_cache_hits_total ").append(ResponseCache.hits()).append('\n');
+    header(out, "maddata_response_cache_misses_total", "counter", "Response cache misses");
+    out.append("maddata_response_cache_misses_total ").append(ResponseCache.misses()).append('\n');
+
+    header(out, "maddata_admission_in_flight", "gauge", "Admission-controlled requests being handled");
+    out.append("maddata_admission_in_flight ").append(AdmissionControl.inFlight()).append('\n');
+    header(out, "maddata_admission_rejected_total", "counter", "Requests answered with 429 by admission control");
+    out.append("maddata_admission_rejected_total{reason=\"in_flight\"} ").append(AdmissionControl.rejectedInFlight()).append('\n');
+    out.append("maddata_admission_rejected_total{reason=\"rate\"} ").append(AdmissionControl.rejectedRate()).append('\n');
+    header(out, "maddata_rate_limit_clients", "gauge", "Clients with a partly used rate limit bucket");
+    out.append("maddata_rate_limit_clients ").append(AdmissionControl.clients()).append('\n');
+
+    header(out, "maddata_query_log_records_total", "counter", "Queries handed to the query log");
+    out.append("maddata_query_log_records_total ").append(QueryLog.recorded()).append('\n');
+    header(out, "maddata_query_log_dropped_total", "counter", "Queries not logged because the query log ring was full");
+    out.append("maddata_query_log_dropped_total ").append(QueryLog.dropped()).append('\n');
+    header(out, "maddata_query_log_written_bytes_total", "counter", "Bytes written to query log files");
+    out.append("maddata_query_log_written_bytes_total ").append(QueryLog.bytesWritten()).append('\n');
+
+    header(out, "maddata_log_dropped_total", "counter", "Log messages dropped because the log queue was full");
+    out.append("maddata_log_dropped_total ").append(AsyncLog.dropped()).append('\n');
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, RouteMetrics route, Object value) {
+    out.append(name).append("{route=\"").append(route.label).append("\"} ").append(value).append('\n');
+  }
+}
@@ -0,0 +1,453 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Records which state / nationality pairs /compare is asked for, off the request path.
+// A handler claims a slot in a bounded lock-free ring (one CAS) and fills in a fixed-size
+// record; when the ring is full the record is dropped and counted, never waited for.
+// A background thread drains the ring in batches into append-only binary files that
+// rotate by size. Each file starts with the state, nationality and family names of the
+// engine its ids belong to, and a new file is started when a reload changes those names,
+// so every file can be read on its own.
+//   QUERY_LOG_DIR          directory for the log files (blank = off)
+//   QUERY_LOG_MAX_FILE_MB  size at which a file is rotated (64)
+//   QUERY_LOG_MAX_FILES    files kept; the oldest are deleted (16)
+//   QUERY_LOG_PREWARM      hottest pairs rendered into the caches after each load (1000, 0 = off)
+// The files feed the hottest-pairs report (java QueryLog <dir> [top]), cache pre-warming and
+// LoadGenerator's LOAD_REPLAY.
+public final class QueryLog {
+
+  public enum Kind { GET, POST }
+
+  // millis (8), state (2), nationality (2), family + 1 (1), statistic (1), kind (1), unused (1)
+  public static final int RECORD_BYTES = 16;
+
+  private static final int MAGIC = 0x4D44514C; // "MDQL"
+  private static final int FORMAT_VERSION = 1;
+  private static final String PREFIX = "queries-";
+  private static final String SUFFIX = ".qlog";
+  private static final int RING_CAPACITY = 1 << 16;
+  private static final int BATCH = 4096;
+  private static final long IDLE_NANOS = 50_000_000;
+  private static final int MAX_PREWARM_MAPS = 8;
+
+  private static volatile QueryLog instance;
+
+  private final Path directory;
+  private final long maxFileBytes;
+  private final int maxFiles;
+
+  // Ring slots; a slot's sequence says whose turn it is (Vyukov's bounded queue)
+  private final int mask = RING_CAPACITY - 1;
+  private final AtomicLongArray sequences = new AtomicLongArray(RING_CAPACITY);
+  private final long[] millis = new long[RING_CAPACITY];
+  private final long[] payloads = new long[RING_CAPACITY];
+  private final ComparisonEngine[] engines = new ComparisonEngine[RING_CAPACITY];
+  private final AtomicLong tail = new AtomicLong();
+  private long head; // writer thread only
+
+  private final LongAdder recorded = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private volatile boolean stopping;
+
+  // Writer thread state
+  private FileChannel channel;
+  private ComparisonEngine fileEngine;
+  private long fileBytes;
+  private int fileSequence;
+
+  private QueryLog(Path directory, long maxFileBytes, int maxFiles) {
+    this.directory = directory;
+    this.maxFileBytes = maxFileBytes;
+    this.maxFiles = maxFiles;
+    for (int i = 0; i < RING_CAPACITY; i++) sequences.set(i, i);
+  }
+
+  // Starts the writer when QUERY_LOG_DIR is set; call once, before requests arrive
+  static void start() {
+    String dir = ComparisonServer.setting("QUERY_LOG_DIR", "");
+    if (dir.isBlank()) {
+      return;
+    }
+    Path directory = Paths.get(dir);
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      System.err.println("Error creating query log directory, query log disabled: " + e.getMessage());
+      return;
+    }
+    QueryLog log = new QueryLog(directory,
+            Long.parseLong(ComparisonServer.setting("QUERY_LOG_MAX_FILE_MB", "64")) * 1024 * 1024,
+            Integer.parseInt(ComparisonServer.setting("QUERY_LOG_MAX_FILES", "16")));
+    Thread writer = new Thread(log::drain, "query-log");
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      log.stopping = true;
+      LockSupport.unpark(writer);
+      try {
+        writer.join(2000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "query-log-flush"));
+    instance = log;
+    System.out.println("✅ Logging queries to " + directory.toAbsolutePath());
+  }
+
+  // null when the query log is off
+  static Path directory() {
+    QueryLog log = instance;
+    return log != null ? log.directory : null;
+  }
+
+  // Called by the handlers with ids of the engine they looked the pair up in; familyId -1 = none
+  public static void record(ComparisonEngine engine, Kind kind, SalaryStatistic statistic,
+                            int stateId, int countryId, int familyId) {
+    QueryLog log = instance;
+    if (log != null) {
+      log.offer(engine, System.currentTimeMillis(), (long) (stateId & 0xFFFF) << 48
+              | (long) (countryId & 0xFFFF) << 32 | (long) ((familyId + 1) & 0xFF) << 24
+              | statistic.ordinal() << 16 | kind.ordinal() << 8);
+    }
+  }
+
+  private void offer(ComparisonEngine engine, long time, long payload) {
+    while (true) {
+      long position = tail.get();
+      int slot = (int) position & mask;
+      long sequence = sequences.get(slot);
+      if (sequence < position) {
+        dropped.increment(); // the writer has not caught up with this slot yet
+        return;
+      }
+      if (sequence == position && tail.compareAndSet(position, position + 1)) {
+        millis[slot] = time;
+        payloads[slot] = payload;
+        engines[slot] = engine;
+        sequences.set(slot, position + 1); // publishes the record to the writer
+        recorded.increment();
+        return;
+      }
+    }
+  }
+
+  private void drain() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * RECORD_BYTES);
+    while (true) {
+      int taken = 0;
+      try {
+        for (; taken < BATCH; taken++) {
+          int slot = (int) head & mask;
+          if (sequences.get(slot) != head + 1) break;
+          ComparisonEngine engine = engines[slot];
+          if (engine != fileEngine) {
+            flush(buffer);
+            if (channel == null || !sameNames(fileEngine, engine)) rotate(engine);
+            fileEngine = engine;
+          }
+          if (fileBytes + buffer.position() + RECORD_BYTES > maxFileBytes) {
+            flush(buffer);
+            rotate(engine);
+          }
+          buffer.putLong(millis[slot]).putLong(payloads[slot]);
+          engines[slot] = null;
+          sequences.set(slot, head + RING_CAPACITY); // hands the slot back to the producers
+          head++;
+        }
+        flush(buffer);
+      } catch (IOException e) {
+        // The batch is lost; the next record opens a fresh file
+        System.err.println("Error writing query log: " + e.getMessage());
+        buffer.clear();
+        closeQuietly();
+      }
+      if (taken == 0) {
+        if (stopping) {
+          closeQuietly();
+          return;
+        }
+        LockSupport.parkNanos(IDLE_NANOS);
+      }
+    }
+  }
+
+  private void flush(ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      fileBytes += channel.write(buffer);
+    }
+    bytesWritten.addAndGet(buffer.limit());
+    buffer.clear();
+  }
+
+  private void rotate(ComparisonEngine engine) throws IOException {
+    closeQuietly();
+    Path file = directory.resolve(String.format("%s%013d-%04d%s", PREFIX, System.currentTimeMillis(),
+            fileSequence++ % 10_000, SUFFIX));
+    channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    byte[] header = header(engine);
+    channel.write(ByteBuffer.wrap(header));
+    fileBytes = header.length;
+    bytesWritten.addAndGet(header.length);
+    fileEngine = engine;
+
+    List<Path> files = files(directory);
+    for (int i = 0; i < files.size() - maxFiles; i++) {
+      Files.deleteIfExists(files.get(i));
+    }
+  }
+
+  private void closeQuietly() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        System.err.println("Error closing query log: " + e.getMessage());
+      }
+      channel = null;
+      fileEngine = null;
+    }
+  }
+
+  private static boolean sameNames(ComparisonEngine a, ComparisonEngine b) {
+    if (a == null || a.stateCount() != b.stateCount() || a.countryCount() != b.countryCount()
+            || a.familyCount() != b.familyCount()) {
+      return false;
+    }
+    for (int s = 0; s < a.stateCount(); s++) if (!a.state(s).equals(b.state(s))) return false;
+    for (int c = 0; c < a.countryCount(); c++) if (!a.country(c).equals(b.country(c))) return false;
+    for (int f = 0; f < a.familyCount(); f++) if (!a.family(f).equals(b.family(f))) return false;
+    return true;
+  }
+
+  private static byte[] header(ComparisonEngine engine) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(engine.stateCount());
+    for (int s = 0; s < engine.stateCount(); s++) out.writeUTF(engine.state(s));
+    out.writeInt(engine.countryCount());
+    for (int c = 0; c < engine.countryCount(); c++) out.writeUTF(engine.country(c));
+    out.writeInt(engine.familyCount());
+    for (int f = 0; f < engine.familyCount(); f++) out.writeUTF(engine.family(f));
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  public static long recorded() {
+    QueryLog log = instance;
+    return log != null ? log.recorded.sum() : 0;
+  }
+
+  public static long dropped() {
+    QueryLog log = instance;
+    return log != null ? log.dropped.sum() : 0;
+  }
+
+  public static long bytesWritten() {
+    QueryLog log = instance;
+    return log != null ? log.bytesWritten.get() : 0;
+  }
+
+  // Reading
+
+  // One logged query, with names resolved from the file's header; family is null when none was asked for
+  public interface Visitor {
+    void query(long millis, Kind kind, SalaryStatistic statistic, String state, String nationality, String family);
+  }
+
+  // Log files of a directory, oldest first
+  public static List<Path> files(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> list = Files.list(directory)) {
+      return list.filter(p -> {
+        String name = p.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }).sorted().collect(Collectors.toList());
+    }
+  }
+
+  // Visits every complete record of a file; a partly written last record is skipped
+  public static void read(Path file, Visitor visitor) throws IOException {
+    scan(file, (names, time, kind, statistic, stateId, countryId, familyId) ->
+            visitor.query(time, kind, statistic, names[0][stateId], names[1][countryId],
+                    familyId >= 0 ? names[2][familyId] : null));
+  }
+
+  // Records with the ids of the file's header: names[0] states, [1] nationalities, [2] families
+  private interface RawVisitor {
+    void query(String[][] names, long millis, Kind kind, SalaryStatistic statistic,
+               int stateId, int countryId, int familyId);
+  }
+
+  private static void scan(Path file, RawVisitor visitor) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Not a query log: " + file);
+      }
+      String[][] names = {readNames(in), readNames(in), readNames(in)};
+      Kind[] kinds = Kind.values();
+      byte[] record = new byte[RECORD_BYTES];
+      ByteBuffer view = ByteBuffer.wrap(record);
+      while (in.readNBytes(record, 0, RECORD_BYTES) == RECORD_BYTES) {
+        long payload = view.getLong(8);
+        int stateId = (int) (payload >>> 48);
+        int countryId = (int) (payload >>> 32) & 0xFFFF;
+        int familyId = (int) (payload >>> 24 & 0xFF) - 1;
+        int statistic = (int) (payload >>> 16) & 0xFF;
+        int kind = (int) (payload >>> 8) & 0xFF;
+        if (stateId >= names[0].length || countryId >= names[1].length || familyId >= names[2].length
+                || statistic >= SalaryStatistic.count() || kind >= kinds.length) {
+          continue;
+        }
+        visitor.query(names, view.getLong(0), kinds[kind], SalaryStatistic.of(statistic), stateId, countryId, familyId);
+      }
+    } catch (EOFException e) {
+      throw new IOException("Truncated query log header: " + file);
+    }
+  }
+
+  private static String[] readNames(DataInputStream in) throws IOException {
+    String[] names = new String[in.readInt()];
+    for (int i = 0; i < names.length; i++) names[i] = in.readUTF();
+    return names;
+  }
+
+  // A (statistic, state, nationality) pair and how often it was asked for
+  public static final class Pair {
+    public final SalaryStatistic statistic;
+    public final String state;
+    public final String nationality;
+    public final long count;
+
+    Pair(SalaryStatistic statistic, String state, String nationality, long count) {
+      this.statistic = statistic;
+      this.state = state;
+      this.nationality = nationality;
+      this.count = count;
+    }
+  }
+
+  // The most requested pairs over all files of a directory, most requested first.
+  // Each file is counted by its own ids in a flat array, and only the pairs it contains
+  // are merged by name.
+  public static List<Pair> hottest(Path directory, int limit) throws IOException {
+    Map<List<Object>, long[]> counts = new HashMap<>();
+    for (Path file : files(directory)) {
+      String[][][] fileNames = new String[1][][];
+      long[][] fileCounts = new long[1][];
+      scan(file, (names, time, kind, statistic, stateId, countryId, familyId) -> {
+        if (fileCounts[0] == null) {
+          fileNames[0] = names;
+          fileCounts[0] = new long[SalaryStatistic.count() * names[0].length * names[1].length];
+        }
+        fileCounts[0][(statistic.ordinal() * names[0].length + stateId) * names[1].length + countryId]++;
+      });
+      if (fileCounts[0] == null) continue;
+      String[] states = fileNames[0][0];
+      String[] countries = fileNames[0][1];
+      for (int i = 0; i < fileCounts[0].length; i++) {
+        if (fileCounts[0][i] == 0) continue;
+        int countryId = i % countries.length;
+        int stateId = i / countries.length % states.length;
+        SalaryStatistic statistic = SalaryStatistic.of(i / countries.length / states.length);
+        counts.computeIfAbsent(List.of(statistic, states[stateId], countries[countryId]), k -> new long[1])[0]
+                += fileCounts[0][i];
+      }
+    }
+    return counts.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+            .limit(limit)
+            .map(e -> new Pair((SalaryStatistic) e.getKey().get(0), (String) e.getKey().get(1),
+                    (String) e.getKey().get(2), e.getValue()[0]))
+            .collect(Collectors.toList());
+  }
+
+  // Renders the hottest logged pairs into a freshly published snapshot's response cache, and the
+  // maps of the most requested nationalities, so the first real requests after a load hit.
+  // Stops early when a newer snapshot replaces this one.
+  static void prewarm(DataSnapshot data, Supplier<DataSnapshot> current) {
+    QueryLog log = instance;
+    int limit = Integer.parseInt(ComparisonServer.setting("QUERY_LOG_PREWARM", "1000"));
+    // Checked before scanning the log files too, which can take a while
+    if (log == null || limit <= 0 || current.get() != data) {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    List<Pair> hottest;
+    try {
+      hottest = hottest(log.directory, limit);
+    } catch (IOException e) {
+      System.err.println("Error reading query log, skipping pre-warming: " + e.getMessage());
+      return;
+    }
+
+    ComparisonEngine engine = data.engine();
+    ResponseCache cache = data.responseCache();
+    Map<List<Object>, Long> maps = new LinkedHashMap<>();
+    int responses = 0;
+    for (Pair pair : hottest) {
+      if (current.get() != data) return;
+      int stateId = engine.stateId(pair.state);
+      int countryId = engine.countryId(pair.nationality);
+      if (stateId < 0 || countryId < 0) continue;
+      if (cache != null && cache.warm(pair.statistic, stateId, countryId)) responses++;
+      maps.merge(List.of(pair.statistic, countryId), pair.count, Long::sum);
+    }
+
+    int rendered = 0;
+    List<List<Object>> popular = maps.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+            .limit(MAX_PREWARM_MAPS)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    for (List<Object> key : popular) {
+      if (current.get() != data) return;
+      try {
+        data.choroplethMap().get((SalaryStatistic) key.get(0), (Integer) key.get(1));
+        rendered++;
+      } catch (IOException e) {
+        System.err.println("Error pre-warming map: " + e.getMessage());
+        break;
+      }
+    }
+    System.out.printf("✅ Pre-warmed %d responses and %d maps for snapshot v%d from %d logged pairs in %.1f ms%n",
+            responses, rendered, data.version(), hottest.size(), (System.nanoTime() - startNanos) / 1e6);
+  }
+
+  // Offline report: java QueryLog <dir> [top]
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: QueryLog <query log directory> [top]");
+      System.exit(2);
+    }
+    Path directory = Paths.get(args[0]);
+    int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    long[] total = new long[1];
+    for (Path file : files(directory)) {
+      read(file, (time, kind, statistic, state, nationality, family) -> total[0]++);
+    }
+    System.out.printf("%d queries in %d files%n", total[0], files(directory).size());
+    for (Pair pair : hottest(directory, top)) {
+      System.out.printf("%10d  %-8s %-3s %s%n", pair.count, pair.statistic.key(), pair.state, pair.nationality);
+    }
+  }
+}
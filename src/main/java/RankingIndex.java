@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// For every nationality, the states ordered from most to least affordable, and for every
+// state, the nationalities ordered the same way. Rows are stored back to back in one
+// int array per statistic, so a page of k results is k array reads.
+// Built in parallel with each data snapshot; states or nationalities without a ratio
+// (a salary statistic missing for that country) are left out of the ranking.
+public final class RankingIndex {
+
+  private final ComparisonEngine engine;
+  private final int[][] statesByCountry;  // [statistic][countryId * stateCount + rank] -> stateId
+  private final int[][] countriesByState; // [statistic][stateId * countryCount + rank] -> countryId
+  private final int[][] rankedStates;     // [statistic][countryId] -> states with a ratio
+  private final int[][] rankedCountries;  // [statistic][stateId] -> countries with a ratio
+
+  private RankingIndex(ComparisonEngine engine) {
+    this.engine = engine;
+    int stats = SalaryStatistic.count();
+    int states = engine.stateCount();
+    int countries = engine.countryCount();
+    statesByCountry = new int[stats][countries * states];
+    countriesByState = new int[stats][states * countries];
+    rankedStates = new int[stats][countries];
+    rankedCountries = new int[stats][states];
+  }
+
+  public static RankingIndex build(ComparisonEngine engine) {
+    RankingIndex index = new RankingIndex(engine);
+    int states = engine.stateCount();
+    int countries = engine.countryCount();
+
+    // One task per row; rows write to disjoint slices, so no coordination is needed
+    for (SalaryStatistic statistic : SalaryStatistic.values()) {
+      int stat = statistic.ordinal();
+      IntStream.range(0, countries).parallel().forEach(c ->
+              index.rankedStates[stat][c] = sortRow(index.statesByCountry[stat], c * states, states,
+                      s -> engine.ratio(statistic, s, c)));
+      IntStream.range(0, states).parallel().forEach(s ->
+              index.rankedCountries[stat][s] = sortRow(index.countriesByState[stat], s * countries, countries,
+                      c -> engine.ratio(statistic, s, c)));
+    }
+    return index;
+  }
+
+  private interface RatioOf {
+    double ratio(int id);
+  }
+
+  // Fills row[start, start + length) with ids by descending ratio, ties by id, NaN last.
+  // Returns how many ids have a ratio.
+  private static int sortRow(int[] row, int start, int length, RatioOf ratios) {
+    Integer[] ids = new Integer[length];
+    double[] keys = new double[length];
+    int ranked = 0;
+    for (int i = 0; i < length; i++) {
+      ids[i] = i;
+      keys[i] = ratios.ratio(i);
+      if (!Double.isNaN(keys[i])) ranked++;
+    }
+    Arrays.sort(ids, (a, b) -> {
+      // Double.compare alone would rank NaN above every real ratio
+      if (Double.isNaN(keys[a]) != Double.isNaN(keys[b])) return Double.isNaN(keys[a]) ? 1 : -1;
+      int byRatio = Double.compare(keys[b], keys[a]);
+      return byRatio != 0 ? byRatio : Integer.compare(a, b);
+    });
+    for (int i = 0; i < length; i++) row[start + i] = ids[i];
+    return ranked;
+  }
+
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  // {"nationality", "statistic", "total", "offset", "results": [{"rank", "state", "ratio", "cost"}]}
+  public String statesJson(SalaryStatistic statistic, int countryId, int offset, int k) {
+    int stat = statistic.ordinal();
+    int total = rankedStates[stat][countryId];
+    int start = countryId * engine.stateCount();
+    int end = Math.min(total, offset + k);
+
+    StringBuilder sb = new StringBuilder(64 + 64 * Math.max(0, end - offset));
+    sb.append("{\"nationality\":");
+    ComparisonEngine.appendString(sb, engine.country(countryId));
+    sb.append(",\"statistic\":\"").append(statistic.key()).append('"');
+    sb.append(",\"total\":").append(total).append(",\"offset\":").append(offset).append(",\"results\":[");
+    for (int rank = offset; rank < end; rank++) {
+      int stateId = statesByCountry[stat][start + rank];
+      if (rank > offset) sb.append(',');
+      sb.append("{\"rank\":").append(rank + 1).append(",\"state\":");
+      ComparisonEngine.appendString(sb, engine.state(stateId));
+      sb.append(",\"ratio\":");
+      ComparisonEngine.appendNumber(sb, engine.ratio(statistic, stateId, countryId));
+      sb.append(",\"cost\":");
+      ComparisonEngine.appendNumber(sb, engine.cost(stateId));
+      sb.append('}');
+    }
+    return sb.append("]}").toString();
+  }
+
+  // {"state", "statistic", "total", "offset", "results": [{"rank", "nationality", "ratio", "salary"}]}
+  public String nationalitiesJson(SalaryStatistic statistic, int stateId, int offset, int k) {
+    int stat = statistic.ordinal();
+    int total = rankedCountries[stat][stateId];
+    int start = stateId * engine.countryCount();
+    int end = Math.min(total, offset + k);
+
+    StringBuilder sb = new StringBuilder(64 + 64 * Math.max(0, end - offset));
+    sb.append("{\"state\":");
+    ComparisonEngine.appendString(sb, engine.state(stateId));
+    sb.append(",\"statistic\":\"").append(statistic.key()).append('"');
+    sb.append(",\"total\":").append(total).append(",\"offset\":").append(offset).append(",\"results\":[");
+    for (int rank = offset; rank < end; rank++) {
+      int countryId = countriesByState[stat][start + rank];
+      if (rank > offset) sb.append(',');
+      sb.append("{\"rank\":").append(rank + 1).append(",\"nationality\":");
+      ComparisonEngine.appendString(sb, engine.country(countryId));
+      sb.append(",\"ratio\":");
+      ComparisonEngine.appendNumber(sb, engine.ratio(statistic, stateId, countryId));
+      sb.append(",\"salary\":");
+      ComparisonEngine.appendNumber(sb, engine.salary(statistic, countryId));
+      sb.append('}');
+    }
+    return sb.append("]}").toString();
+  }
+}
@@ -0,0 +1,174 @@
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Chooses the thread pool of Spark's embedded Jetty server.
+//   DEFAULT:  Spark's own pool (200 platform threads, unbounded queue)
+//   PLATFORM: a bounded platform pool sized for handlers that barely block
+//   VIRTUAL:  one virtual thread per request (JDK 21+); Jetty's acceptors and selectors
+//             keep running on a small platform pool
+public final class RequestExecutor {
+
+  public enum Mode { DEFAULT, PLATFORM, VIRTUAL }
+
+  private static final LongAdder rejected = new LongAdder();
+  private static final LongAdder virtualStarted = new LongAdder();
+  private static final LongAdder virtualCompleted = new LongAdder();
+
+  private static Mode mode = Mode.DEFAULT;
+  private static QueuedThreadPool pool; // null in DEFAULT mode
+
+  private RequestExecutor() {
+  }
+
+  // Must run before the first route is defined, since that ignites the server.
+  // SERVER_EXECUTOR=default|platform|virtual, SERVER_MAX_THREADS, SERVER_MIN_THREADS,
+  // SERVER_IDLE_TIMEOUT_MS, SERVER_QUEUE_SIZE
+  public static void configure() {
+    mode = parseMode(ComparisonServer.setting("SERVER_EXECUTOR", "default"));
+    if (mode == Mode.DEFAULT) {
+      return;
+    }
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    int idleTimeout = Integer.parseInt(ComparisonServer.setting("SERVER_IDLE_TIMEOUT_MS", "30000"));
+    int queueSize = Integer.parseInt(ComparisonServer.setting("SERVER_QUEUE_SIZE", "1024"));
+
+    ExecutorService virtualThreads = null;
+    if (mode == Mode.VIRTUAL) {
+      virtualThreads = newVirtualThreadExecutor();
+      if (virtualThreads == null) {
+        System.err.println("Virtual threads need JDK 21+ (running " + Runtime.version() + "), using the platform pool");
+        mode = Mode.PLATFORM;
+      }
+    }
+
+    // With virtual threads the platform pool only runs Jetty itself, so it can stay small
+    int defaultMax = mode == Mode.VIRTUAL ? Math.max(8, cores * 2) : Math.max(16, cores * 4);
+    int maxThreads = Integer.parseInt(ComparisonServer.setting("SERVER_MAX_THREADS", String.valueOf(defaultMax)));
+    int minThreads = Integer.parseInt(ComparisonServer.setting("SERVER_MIN_THREADS",
+            String.valueOf(Math.min(8, maxThreads))));
+
+    // A bounded queue rejects work under overload instead of letting latency grow without limit
+    BlockingArrayQueue<Runnable> queue = new BlockingArrayQueue<>(Math.min(queueSize, 256), 256, queueSize);
+    pool = new Pool(maxThreads, minThreads, idleTimeout, queue, virtualThreads);
+    pool.setName("http");
+
+    EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+            new EmbeddedJettyFactory(new ServerFactory()).withThreadPool(pool));
+    System.out.printf("✅ Request executor: %s (%d-%d platform threads, queue %d, idle timeout %d ms)%n",
+            mode.name().toLowerCase(), minThreads, maxThreads, queueSize, idleTimeout);
+  }
+
+  public static Mode parseMode(String value) {
+    try {
+      return Mode.valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown request executor '" + value + "', using Spark's default pool");
+      return Mode.DEFAULT;
+    }
+  }
+
+  // Executors.newVirtualThreadPerTaskExecutor() looked up reflectively, so the server still
+  // builds for and runs on JDK 17. null when the running JDK has no virtual threads.
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  // Saturation figures for GET /server/executor
+  public static Map<String, Object> stats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("mode", mode.name().toLowerCase());
+    stats.put("rejected", rejected.sum());
+    if (pool != null) {
+      stats.put("threads", pool.getThreads());
+      stats.put("minThreads", pool.getMinThreads());
+      stats.put("maxThreads", pool.getMaxThreads());
+      stats.put("busyThreads", pool.getBusyThreads());
+      stats.put("idleThreads", pool.getIdleThreads());
+      stats.put("queued", pool.getQueueSize());
+      stats.put("utilization", pool.getUtilizationRate());
+      stats.put("lowOnThreads", pool.isLowOnThreads());
+    }
+    if (mode == Mode.VIRTUAL) {
+      long started = virtualStarted.sum();
+      long completed = virtualCompleted.sum();
+      stats.put("virtualStarted", started);
+      stats.put("virtualActive", started - completed);
+    }
+    return stats;
+  }
+
+  // Counts rejections, and in VIRTUAL mode hands blocking jobs submitted after startup
+  // (request handling) to virtual threads. Jobs submitted while the server starts are the
+  // acceptor and selector loops; those and non-blocking jobs stay on platform threads.
+  private static final class Pool extends QueuedThreadPool {
+    private final ExecutorService virtualThreads;
+    private volatile boolean serverStarted;
+
+    Pool(int maxThreads, int minThreads, int idleTimeout, BlockingArrayQueue<Runnable> queue,
+         ExecutorService virtualThreads) {
+      super(maxThreads, minThreads, idleTimeout, queue);
+      this.virtualThreads = virtualThreads;
+    }
+
+    @Override
+    public void execute(Runnable job) {
+      if (virtualThreads != null && serverStarted
+              && Invocable.getInvocationType(job) != Invocable.InvocationType.NON_BLOCKING) {
+        virtualStarted.increment();
+        virtualThreads.execute(() -> {
+          try {
+            job.run();
+          } finally {
+            virtualCompleted.increment();
+          }
+        });
+        return;
+      }
+      try {
+        super.execute(job);
+      } catch (RejectedExecutionException e) {
+        rejected.increment();
+        throw e;
+      }
+    }
+  }
+
+  // Spark always builds the server through this factory, so the pool learns when startup is over
+  private static final class ServerFactory implements JettyServerFactory {
+    @Override
+    public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+      return create(pool);
+    }
+
+    @Override
+    public Server create(ThreadPool threadPool) {
+      return new Server(threadPool) {
+        @Override
+        protected void doStart() throws Exception {
+          super.doStart();
+          if (threadPool instanceof Pool) {
+            ((Pool) threadPool).serverStarted = true;
+          }
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,118 @@
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caches the final UTF-8 JSON bytes of POST /compare per (statistic, state, nationality).
+// A cache instance belongs to exactly one ComparisonEngine; reloading data builds a
+// new engine and a new, empty cache, which is how old entries get invalidated.
+public final class ResponseCache {
+
+  public enum Mode { OFF, LAZY, EAGER }
+
+  // Counters are global so they keep counting across reloads
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final LongAdder invalidations = new LongAdder();
+
+  private final ComparisonEngine engine;
+  private final AtomicReferenceArray<byte[]> entries;
+
+  private ResponseCache(ComparisonEngine engine) {
+    this.engine = engine;
+    this.entries = new AtomicReferenceArray<>(SalaryStatistic.count() * engine.stateCount() * engine.countryCount());
+  }
+
+  // Returns null when the mode is OFF
+  public static ResponseCache create(ComparisonEngine engine, Mode mode) {
+    if (mode == Mode.OFF) {
+      return null;
+    }
+
+    ResponseCache cache = new ResponseCache(engine);
+    if (mode == Mode.EAGER) {
+      for (SalaryStatistic statistic : SalaryStatistic.values()) {
+        for (int s = 0; s < engine.stateCount(); s++) {
+          for (int c = 0; c < engine.countryCount(); c++) {
+            cache.entries.set(cache.slot(statistic, s, c), cache.render(statistic, s, c));
+          }
+        }
+      }
+    }
+    return cache;
+  }
+
+  public static Mode parseMode(String value) {
+    try {
+      return Mode.valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown response cache mode '" + value + "', caching disabled");
+      return Mode.OFF;
+    }
+  }
+
+  // Lookups must use ids from this engine, not from a newer one
+  public ComparisonEngine engine() {
+    return engine;
+  }
+
+  public byte[] get(SalaryStatistic statistic, int stateId, int countryId) {
+    int slot = slot(statistic, stateId, countryId);
+    byte[] json = entries.get(slot);
+    if (json != null) {
+      hits.increment();
+      return json;
+    }
+
+    misses.increment();
+    json = render(statistic, stateId, countryId);
+    // Two threads may render the same pair, both produce identical bytes
+    entries.lazySet(slot, json);
+    return json;
+  }
+
+  // Renders a pair that is not cached yet without counting a miss; false when it already was
+  public boolean warm(SalaryStatistic statistic, int stateId, int countryId) {
+    int slot = slot(statistic, stateId, countryId);
+    if (entries.get(slot) != null) {
+      return false;
+    }
+    entries.lazySet(slot, render(statistic, stateId, countryId));
+    return true;
+  }
+
+  public int size() {
+    int filled = 0;
+    for (int i = 0; i < entries.length(); i++) {
+      if (entries.get(i) != null) filled++;
+    }
+    return filled;
+  }
+
+  public int capacity() {
+    return entries.length();
+  }
+
+  static void recordInvalidation() {
+    invalidations.increment();
+  }
+
+  public static long hits() {
+    return hits.sum();
+  }
+
+  public static long misses() {
+    return misses.sum();
+  }
+
+  public static long invalidations() {
+    return invalidations.sum();
+  }
+
+  private int slot(SalaryStatistic statistic, int stateId, int countryId) {
+    return (statistic.ordinal() * engine.stateCount() + stateId) * engine.countryCount() + countryId;
+  }
+
+  private byte[] render(SalaryStatistic statistic, int stateId, int countryId) {
+    return engine.toJson(statistic, stateId, countryId).getBytes(StandardCharsets.UTF_8);
+  }
+}
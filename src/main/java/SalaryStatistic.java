@@ -0,0 +1,49 @@
+// Salary statistics available per country in salary_data.csv
+public enum SalaryStatistic {
+  MEDIAN(3),
+  AVERAGE(4),
+  LOWEST(5),
+  HIGHEST(6);
+
+  public static final SalaryStatistic DEFAULT = MEDIAN;
+
+  private static final SalaryStatistic[] VALUES = values();
+
+  private final int csvColumn;
+
+  SalaryStatistic(int csvColumn) {
+    this.csvColumn = csvColumn;
+  }
+
+  // Column of the monthly/yearly figure in salary_data.csv
+  public int csvColumn() {
+    return csvColumn;
+  }
+
+  public String key() {
+    return name().toLowerCase();
+  }
+
+  public static int count() {
+    return VALUES.length;
+  }
+
+  public static SalaryStatistic of(int ordinal) {
+    return VALUES[ordinal];
+  }
+
+  // null or blank means the default; returns null for unknown names
+  public static SalaryStatistic parse(String value) {
+    if (value == null || value.isBlank()) {
+      return DEFAULT;
+    }
+    String name = value.trim().toUpperCase();
+    if (name.endsWith("_SALARY")) {
+      name = name.substring(0, name.length() - "_SALARY".length());
+    }
+    for (SalaryStatistic statistic : VALUES) {
+      if (statistic.name().equals(name)) return statistic;
+    }
+    return null;
+  }
+}
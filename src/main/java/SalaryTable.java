@@ -0,0 +1,98 @@
+import java.math.BigDecimal;
+import java.util.*;
+
+// Yearly salary statistics per country, stored column-wise as primitive arrays.
+// Countries are sorted by name and a country's index is its id everywhere else.
+public final class SalaryTable {
+
+  private final String[] countries;
+  private final double[][] yearly; // [statistic ordinal][country index]
+
+  private SalaryTable(String[] countries, double[][] yearly) {
+    this.countries = countries;
+    this.yearly = yearly;
+  }
+
+  public int size() {
+    return countries.length;
+  }
+
+  public String country(int index) {
+    return countries[index];
+  }
+
+  public double value(SalaryStatistic statistic, int index) {
+    return yearly[statistic.ordinal()][index];
+  }
+
+  // Shared array, callers must not modify it
+  double[] column(SalaryStatistic statistic) {
+    return yearly[statistic.ordinal()];
+  }
+
+  public Map<String, Double> toMap(SalaryStatistic statistic) {
+    Map<String, Double> map = new HashMap<>(countries.length * 2);
+    for (int i = 0; i < countries.length; i++) {
+      map.put(countries[i], yearly[statistic.ordinal()][i]);
+    }
+    return map;
+  }
+
+  // Only one statistic known (e.g. the two-column clean_salary_data.csv); the others are NaN
+  public static SalaryTable ofSingle(SalaryStatistic statistic, Map<String, Double> values) {
+    Builder builder = new Builder();
+    double[] row = new double[SalaryStatistic.count()];
+    for (Map.Entry<String, Double> entry : values.entrySet()) {
+      Arrays.fill(row, Double.NaN);
+      row[statistic.ordinal()] = entry.getValue();
+      builder.add(entry.getKey(), row);
+    }
+    return builder.build();
+  }
+
+  // Monthly or weekly figures scaled to a year; 0 when the span is unknown
+  public static double yearlyFactor(String wageSpan) {
+    switch (wageSpan.trim().toLowerCase()) {
+      case "monthly": return 12;
+      case "weekly": return 52;
+      case "yearly":
+      case "annual":
+      case "annually": return 1;
+      default: return 0;
+    }
+  }
+
+  // Multiplies in decimal so 853.74 * 12 gives 10244.88 rather than 10244.880000000001,
+  // matching the values in clean_salary_data.csv
+  public static double toYearly(double amount, double factor) {
+    return new BigDecimal(Double.toString(amount)).multiply(BigDecimal.valueOf(factor)).doubleValue();
+  }
+
+  public static final class Builder {
+    private final Map<String, double[]> rows = new HashMap<>();
+
+    // values are yearly figures indexed by statistic ordinal; the array is copied
+    public Builder add(String country, double[] values) {
+      rows.put(country, values.clone());
+      return this;
+    }
+
+    public int size() {
+      return rows.size();
+    }
+
+    public SalaryTable build() {
+      String[] countries = rows.keySet().toArray(new String[0]);
+      Arrays.sort(countries);
+
+      double[][] yearly = new double[SalaryStatistic.count()][countries.length];
+      for (int c = 0; c < countries.length; c++) {
+        double[] values = rows.get(countries[c]);
+        for (int s = 0; s < yearly.length; s++) {
+          yearly[s][c] = values[s];
+        }
+      }
+      return new SalaryTable(countries, yearly);
+    }
+  }
+}
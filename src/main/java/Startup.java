@@ -0,0 +1,144 @@
+import spark.Request;
+import spark.Spark;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Supplier;
+
+// Boot sequence and health checks. The port is bound before any data is read, so the
+// platform sees the app come up at once; routes that need data answer 503 until the
+// first snapshot is published. An optional warm-up then sends /compare requests to the
+// server itself until the JIT stops compiling, and only after that does /health/ready
+// report ready. Each phase's duration is logged and kept for /health/ready and /metrics.
+public final class Startup {
+
+  public enum Phase { BINDING, LOADING, WARMING_UP, READY }
+
+  private static final long WARMUP_BATCH = 200;
+  private static final double SETTLED_COMPILE_MS = 5; // JIT time per batch below which code counts as compiled
+
+  private static volatile Phase phase = Phase.BINDING;
+  private static final Map<String, Long> phaseMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+  private static long phaseStart = System.nanoTime();
+  private static final String warmUpToken = UUID.randomUUID().toString();
+
+  private Startup() {
+  }
+
+  // Call first thing in main, so binding is timed from there
+  public static synchronized void begin() {
+    phaseStart = System.nanoTime();
+  }
+
+  public static Phase phase() {
+    return phase;
+  }
+
+  public static boolean isReady() {
+    return phase == Phase.READY;
+  }
+
+  // Ends the current phase, recording how long it took
+  public static synchronized void enter(Phase next) {
+    long now = System.nanoTime();
+    phaseMillis.put(phase.name().toLowerCase(), (now - phaseStart) / 1_000_000);
+    phaseStart = now;
+    phase = next;
+    if (next == Phase.READY) {
+      StringJoiner timings = new StringJoiner(", ");
+      phaseMillis.forEach((name, millis) -> timings.add(name + " " + millis + " ms"));
+      System.out.printf("✅ Ready %d ms after JVM start (%s)%n",
+              ManagementFactory.getRuntimeMXBean().getUptime(), timings);
+    }
+  }
+
+  public static Map<String, Long> phaseMillis() {
+    synchronized (phaseMillis) {
+      return new LinkedHashMap<>(phaseMillis);
+    }
+  }
+
+  // Paths that need a data snapshot answer 503 until the first one is published
+  public static void requireData(Supplier<DataSnapshot> snapshot, String... paths) {
+    for (String path : paths) {
+      Spark.before(path, (req, res) -> {
+        if (snapshot.get() == null) {
+          res.type("application/json");
+          res.header("Retry-After", "1");
+          Spark.halt(503, "{\"error\":\"Data is still loading, try again shortly!\"}");
+        }
+      });
+    }
+  }
+
+  // The server's own warm-up requests, which admission control lets through
+  public static boolean isWarmUpRequest(Request req) {
+    return phase == Phase.WARMING_UP && warmUpToken.equals(req.headers("X-Warm-Up"));
+  }
+
+  // Sends GET and POST /compare requests over random state / nationality pairs to the local
+  // server, in batches, until a batch adds almost no JIT compilation time or maxMillis passes.
+  // Does nothing when there are no pairs to ask for.
+  public static void warmUp(int port, ComparisonEngine engine, long maxMillis) {
+    if (engine.stateCount() == 0 || engine.countryCount() == 0) {
+      System.err.println("No states or countries loaded, skipping warm-up");
+      return;
+    }
+    CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    boolean canMeasure = jit != null && jit.isCompilationTimeMonitoringSupported();
+    HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+    String base = "http://127.0.0.1:" + port + "/compare";
+    SplittableRandom random = new SplittableRandom(1);
+
+    long deadline = System.nanoTime() + maxMillis * 1_000_000;
+    long requests = 0;
+    long failures = 0;
+    int batches = 0;
+    double lastCompileMillis = Double.NaN;
+    while (System.nanoTime() - deadline < 0) {
+      long compileBefore = canMeasure ? jit.getTotalCompilationTime() : 0;
+      for (int i = 0; i < WARMUP_BATCH; i++) {
+        String state = engine.state(random.nextInt(engine.stateCount()));
+        String nationality = engine.country(random.nextInt(engine.countryCount()));
+        HttpRequest request = i % 2 == 0
+                ? HttpRequest.newBuilder(URI.create(base + "?state=" + URLEncoder.encode(state, StandardCharsets.UTF_8)
+                        + "&nationality=" + URLEncoder.encode(nationality, StandardCharsets.UTF_8)))
+                        .header("X-Warm-Up", warmUpToken).GET().build()
+                : HttpRequest.newBuilder(URI.create(base))
+                        .header("X-Warm-Up", warmUpToken)
+                        .header("Content-Type", "application/json; charset=utf-8")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"state\":\"" + state + "\",\"nationality\":\""
+                                + nationality.replace("\"", "\\\"") + "\"}", StandardCharsets.UTF_8))
+                        .build();
+        try {
+          if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) failures++;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (IOException e) {
+          failures++;
+        }
+        requests++;
+      }
+      batches++;
+      if (canMeasure) {
+        lastCompileMillis = jit.getTotalCompilationTime() - compileBefore;
+        if (batches >= 3 && lastCompileMillis < SETTLED_COMPILE_MS) break;
+      }
+    }
+    System.out.printf("✅ Warm-up sent %d requests (%d failed); JIT time in the last batch: %s%n",
+            requests, failures, Double.isNaN(lastCompileMillis) ? "not measurable" : lastCompileMillis + " ms");
+  }
+}
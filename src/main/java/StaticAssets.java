@@ -0,0 +1,197 @@
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static spark.Spark.get;
+import static spark.Spark.head;
+
+// Web assets read from the classpath once at startup and served from memory.
+// Each asset keeps a gzip variant (best compression, built once) next to the original, a
+// strong ETag per variant and a Cache-Control policy; If-None-Match is answered with 304.
+// The JDK has no brotli encoder, so gzip is the only precompressed encoding.
+public final class StaticAssets {
+
+  static final String REVALIDATE = "no-cache";
+  private static final String ONE_DAY = "public, max-age=86400";
+
+  // Also used for generated content such as the choropleth maps
+  static final class Asset {
+    final String contentType;
+    final String cacheControl;
+    final byte[] identity;
+    final byte[] gzip; // null when compression does not make it smaller
+    final String etag;
+    final String gzipEtag;
+
+    Asset(String contentType, String cacheControl, byte[] identity, byte[] gzip, String etag) {
+      this.contentType = contentType;
+      this.cacheControl = cacheControl;
+      this.identity = identity;
+      this.gzip = gzip;
+      this.etag = "\"" + etag + "\"";
+      this.gzipEtag = "\"" + etag + "-gz\"";
+    }
+
+    static Asset of(String contentType, String cacheControl, byte[] identity, String etag) throws IOException {
+      byte[] gzip = gzip(identity);
+      return new Asset(contentType, cacheControl, identity, gzip.length < identity.length ? gzip : null, etag);
+    }
+
+    int size() {
+      return identity.length + (gzip != null ? gzip.length : 0);
+    }
+  }
+
+  private StaticAssets() {
+  }
+
+  // Registers GET and HEAD /<name> for each resource in the classpath directory
+  public static void serve(String directory, String... names) {
+    long startNanos = System.nanoTime();
+    long identityBytes = 0;
+    long gzipBytes = 0;
+    for (String name : names) {
+      Asset asset = load(directory + "/" + name);
+      if (asset == null) {
+        System.err.println("Error: Static asset not found in resources - " + name);
+        continue;
+      }
+      identityBytes += asset.identity.length;
+      gzipBytes += asset.gzip != null ? asset.gzip.length : asset.identity.length;
+      get("/" + name, (req, res) -> write(req, res, asset));
+      head("/" + name, (req, res) -> respond(req, res, asset, false));
+    }
+    System.out.printf("✅ Cached %d static assets in %.1f ms (%d bytes, %d gzipped)%n",
+            names.length, (System.nanoTime() - startNanos) / 1e6, identityBytes, gzipBytes);
+  }
+
+  private static Asset load(String resource) {
+    try (InputStream in = StaticAssets.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        return null;
+      }
+      byte[] identity = in.readAllBytes();
+      boolean html = resource.endsWith(".html");
+      return Asset.of(contentType(resource), html ? REVALIDATE : ONE_DAY, identity, contentTag(identity));
+    } catch (IOException e) {
+      System.err.println("Error loading static asset " + resource + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  // ETag value derived from the bytes alone, so it stays valid across restarts and reloads
+  static String contentTag(byte[] identity) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(identity), 0, 8);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JDK has SHA-256
+    }
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      gzip.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  private static String contentType(String resource) {
+    if (resource.endsWith(".html")) return "text/html; charset=utf-8";
+    if (resource.endsWith(".svg")) return "image/svg+xml";
+    if (resource.endsWith(".css")) return "text/css; charset=utf-8";
+    if (resource.endsWith(".js")) return "text/javascript; charset=utf-8";
+    return "application/octet-stream";
+  }
+
+  // Writes straight to the servlet response; once it is committed Spark skips its own
+  // serialization, which would otherwise gzip the already compressed bytes a second time
+  static Object write(Request req, Response res, Asset asset) throws IOException {
+    return respond(req, res, asset, true);
+  }
+
+  // HEAD gets the same headers as GET, including ETag, Content-Encoding and Content-Length
+  private static Object respond(Request req, Response res, Asset asset, boolean withBody) throws IOException {
+    HttpServletResponse raw = res.raw();
+    boolean gzip = asset.gzip != null && acceptsGzip(req.headers("Accept-Encoding"));
+    String etag = gzip ? asset.gzipEtag : asset.etag;
+
+    raw.setHeader("ETag", etag);
+    raw.setHeader("Cache-Control", asset.cacheControl);
+    raw.setHeader("Vary", "Accept-Encoding");
+
+    if (matches(req.headers("If-None-Match"), asset)) {
+      raw.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      raw.flushBuffer();
+      return "";
+    }
+
+    byte[] body = gzip ? asset.gzip : asset.identity;
+    raw.setContentType(asset.contentType);
+    if (gzip) {
+      raw.setHeader("Content-Encoding", "gzip");
+    }
+    raw.setContentLength(body.length);
+    if (!withBody) {
+      raw.flushBuffer();
+      return "";
+    }
+    ServletOutputStream out = raw.getOutputStream();
+    out.write(body);
+    out.flush();
+    return "";
+  }
+
+  // Either variant's tag counts, so a client switching encodings still gets a 304
+  private static boolean matches(String ifNoneMatch, Asset asset) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) tag = tag.substring(2); // If-None-Match uses weak comparison
+      if (tag.equals("*") || tag.equals(asset.etag) || tag.equals(asset.gzipEtag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String part : acceptEncoding.split(",")) {
+      String[] params = part.split(";");
+      String coding = params[0].trim();
+      if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+      double quality = 1;
+      for (int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      return quality > 0;
+    }
+    return false;
+  }
+}
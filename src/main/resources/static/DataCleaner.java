@@ -2,12 +2,23 @@ import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 public class DataCleaner {
 
@@ -73,106 +84,299 @@ public class DataCleaner {
       count++;
     }
 
+    void merge(Accumulator other) {
+      sum += other.sum;
+      count += other.count;
+    }
+
     double getAverage() {
       return (count == 0) ? 0.0 : (sum / count);
     }
   }
 
-  public static void main(String[] args) {
-    String inputfile1 = "C:/Users/96248/IdeaProjects/MadData/src/salary_data.csv";
-    String outputfile1 = "C:/Users/96248/IdeaProjects/MadData/src/clean_salary_data.csv";
+  // Inputs smaller than this are parsed by a single task
+  static final int MIN_CHUNK_BYTES = 256 * 1024;
+
+  // Parses [start, end) of a CSV file, forking in two at a line boundary while the range is large.
+  // The file must not contain quoted line breaks, which is true for both upstream datasets.
+  @SuppressWarnings("serial") // never serialized
+  abstract static class ChunkTask<R> extends RecursiveTask<R> {
+    final byte[] data;
+    final int start;
+    final int end;
+
+    ChunkTask(byte[] data, int start, int end) {
+      this.data = data;
+      this.start = start;
+      this.end = end;
+    }
 
-    String inputfile2 = "C:/Users/96248/IdeaProjects/MadData/src/cost_of_living_in_the_us_updated.csv";
-    String outputfile2 = "C:/Users/96248/IdeaProjects/MadData/src/clean_cost_of_living_in_the_us_updated.csv";
+    abstract ChunkTask<R> subTask(int start, int end);
 
-    try (
-            CSVReader reader = new CSVReader(new FileReader(inputfile1));
-            CSVWriter writer = new CSVWriter(new FileWriter(outputfile1))
-    ) {
-      String[] row;
-      boolean isHeader = true;
-      while ((row = reader.readNext()) != null) {
+    abstract R parse() throws IOException;
 
-        // Print the raw row content before we do anything else
-        System.out.println("Read Row (raw): " + String.join(",", row));
+    abstract R merge(R left, R right);
 
-        if (isHeader) {
-          // Rename the second column (index 1) to "YearlySalary"
-          row[1] = "YearlySalary";
-          writer.writeNext(row);
+    @Override
+    protected R compute() {
+      if (end - start > MIN_CHUNK_BYTES) {
+        int middle = nextLine(data, start + (end - start) / 2, end);
+        if (middle < end) {
+          ChunkTask<R> left = subTask(start, middle);
+          ChunkTask<R> right = subTask(middle, end);
+          left.fork();
+          R rightResult = right.compute();
+          return merge(left.join(), rightResult);
+        }
+      }
 
-          // Also print a note about the header change
-          System.out.println("Header updated: " + String.join(",", row));
+      try {
+        return parse();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
 
-          isHeader = false;
-          continue;
-        }
+    InputStream stream() {
+      return new ByteArrayInputStream(data, start, end - start);
+    }
+  }
 
-        // Parse monthly salary from the second column (index 1)
-        double monthlySalary = Double.parseDouble(row[3]);
-        double yearlySalary = monthlySalary * 12;
+  // Index just past the next '\n' at or after from, or end
+  static int nextLine(byte[] data, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (data[i] == '\n') return i + 1;
+    }
+    return end;
+  }
 
-        // Convert back to string
-        row[1] = String.valueOf(yearlySalary);
+  // Salary rows with the yearly salary written over column 1, in input order, each row's
+  // yearly salary statistics, and how many malformed rows were left out
+  static class SalaryChunk {
+    final List<String[]> rows = new ArrayList<>();
+    final List<double[]> yearly = new ArrayList<>();
+    long skipped;
+  }
 
-        // Write updated row to new CSV
-        writer.writeNext(row);
+  @SuppressWarnings("serial")
+  static class SalaryTask extends ChunkTask<SalaryChunk> {
+    SalaryTask(byte[] data, int start, int end) {
+      super(data, start, end);
+    }
 
-        // Print info about the conversion
-        System.out.println("Converted monthly " + monthlySalary + " to yearly " + yearlySalary);
-      }
+    @Override
+    ChunkTask<SalaryChunk> subTask(int start, int end) {
+      return new SalaryTask(data, start, end);
+    }
 
-      System.out.println("Conversion complete! New CSV: " + outputfile1);
+    @Override
+    SalaryChunk parse() throws IOException {
+      SalaryChunk chunk = new SalaryChunk();
+      CsvParser.parse(stream(), row -> {
+        // country_name, continent_name, wage_span, median, average, lowest, highest; rows
+        // ComparisonServer.loadSalaryTable would skip are skipped and logged here too
+        if (row.fieldCount() < 7) {
+          System.err.println("Skipping row due to insufficient data: " + row);
+          chunk.skipped++;
+          return;
+        }
+        double factor = SalaryTable.yearlyFactor(row.getString(2));
+        if (factor == 0) {
+          System.err.println("Skipping row with unknown wage span: " + row);
+          chunk.skipped++;
+          return;
+        }
+        String[] fields = new String[row.fieldCount()];
+        double[] yearly = new double[SalaryStatistic.count()];
+        try {
+          for (SalaryStatistic statistic : SalaryStatistic.values()) {
+            yearly[statistic.ordinal()] = SalaryTable.toYearly(row.getDouble(statistic.csvColumn()), factor);
+          }
+          // Monthly median salary (column 3) to yearly
+          fields[1] = String.valueOf(row.getDouble(3) * 12);
+        } catch (NumberFormatException e) {
+          System.err.println("Skipping row due to invalid number format: " + row);
+          chunk.skipped++;
+          return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+          if (i != 1) fields[i] = row.getString(i);
+        }
+        chunk.rows.add(fields);
+        chunk.yearly.add(yearly);
+      });
+      return chunk;
+    }
 
-    } catch (IOException | CsvValidationException e) {
-      e.printStackTrace();
+    @Override
+    SalaryChunk merge(SalaryChunk left, SalaryChunk right) {
+      left.rows.addAll(right.rows);
+      left.yearly.addAll(right.yearly);
+      left.skipped += right.skipped;
+      return left;
     }
+  }
 
-    // Map: stateName -> Accumulator
-    Map<String, Accumulator> stateMap = new HashMap<>();
+  // Per-state total cost averages plus per-column statistics, per state and per family type
+  static class CostChunk {
+    final Map<String, Accumulator> totals = new HashMap<>();
+    final CostDetails columns = new CostDetails();
+    long rows;
+    long skipped;
+  }
 
-    try (CSVReader reader = new CSVReader(new FileReader(inputfile2))) {
-      String[] row;
-      boolean isHeader = true;
+  @SuppressWarnings("serial")
+  static class CostTask extends ChunkTask<CostChunk> {
+    CostTask(byte[] data, int start, int end) {
+      super(data, start, end);
+    }
 
-      while ((row = reader.readNext()) != null) {
-        // Skip or process header
-        if (isHeader) {
-          isHeader = false;
-          continue;
+    @Override
+    ChunkTask<CostChunk> subTask(int start, int end) {
+      return new CostTask(data, start, end);
+    }
+
+    @Override
+    CostChunk parse() throws IOException {
+      CostChunk chunk = new CostChunk();
+      double[] costColumns = new double[CostStats.COLUMNS.length];
+      CsvParser.parse(stream(), row -> {
+        // row[1] = State, row[2] = isMetro, row[3] = area name, row[4] = County, row[5] = Family,
+        // row[6..12] = cost columns, row[13] = total cost
+        // Malformed rows are skipped and logged as ComparisonServer.loadDetailedCSV does; this
+        // also reads the total, so it needs one more column
+        if (row.fieldCount() < 14) {
+          System.err.println("Skipping row due to insufficient data: " + row);
+          chunk.skipped++;
+          return;
         }
+        double total;
+        try {
+          total = row.getLenientDouble(13);
+          for (int i = 0; i < costColumns.length; i++) {
+            costColumns[i] = row.getLenientDouble(CostStats.FIRST_CSV_COLUMN + i);
+          }
+        } catch (NumberFormatException e) {
+          System.err.println("Skipping row due to invalid number format: " + row);
+          chunk.skipped++;
+          return;
+        }
+        String state = row.getString(1);  // e.g. "AL"
+        chunk.totals.computeIfAbsent(state, k -> new Accumulator()).add(total);
+
+        String metro = "true".equalsIgnoreCase(row.getString(2)) ? row.getString(3) : null;
+        chunk.columns.add(state, row.getString(5), metro, row.getString(4), costColumns);
+        chunk.rows++;
+      });
+      return chunk;
+    }
 
-        // row[0] = State, row[1] = RegionName, row[2] = Cost (adjust if your CSV layout differs)
-        String state = row[1];  // e.g. "AL"
-        double cost = Double.parseDouble(row[13]);
+    @Override
+    CostChunk merge(CostChunk left, CostChunk right) {
+      right.totals.forEach((state, acc) -> left.totals.computeIfAbsent(state, k -> new Accumulator()).merge(acc));
+      left.columns.merge(right.columns);
+      left.rows += right.rows;
+      left.skipped += right.skipped;
+      return left;
+    }
+  }
 
-        // Accumulate the cost for this state
-        stateMap.putIfAbsent(state, new Accumulator());
-        stateMap.get(state).add(cost);
+  // Header line as fields, and the offset where the data rows start
+  static String[] readHeader(byte[] data) throws IOException {
+    List<String[]> header = new ArrayList<>();
+    CsvParser.parse(new ByteArrayInputStream(data, 0, nextLine(data, 0, data.length)), row -> {
+      String[] fields = new String[row.fieldCount()];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = row.getString(i);
+      }
+      header.add(fields);
+    });
+    return header.isEmpty() ? new String[0] : header.get(0);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: DataCleaner <inputDir> <outputDir> [threads]");
+      System.err.println("  reads  salary_data.csv, cost_of_living_in_the_us_updated.csv");
+      System.err.println("  writes clean_salary_data.csv, clean_cost_of_living_in_the_us_updated.csv, maddata.snapshot");
+      System.exit(1);
+    }
+    Path inputDir = Paths.get(args[0]);
+    Path outputDir = Paths.get(args[1]);
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+    String inputfile1 = inputDir.resolve("salary_data.csv").toString();
+    String outputfile1 = outputDir.resolve("clean_salary_data.csv").toString();
+
+    String inputfile2 = inputDir.resolve("cost_of_living_in_the_us_updated.csv").toString();
+    String outputfile2 = outputDir.resolve("clean_cost_of_living_in_the_us_updated.csv").toString();
+
+    // Binary snapshot the server maps on startup instead of parsing the CSVs
+    String outputfile3 = outputDir.resolve("maddata.snapshot").toString();
+
+    Files.createDirectories(outputDir);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long startNanos = System.nanoTime();
+
+    // Both inputs are parsed at the same time, each split into chunks across the pool
+    byte[] salaryBytes = Files.readAllBytes(Paths.get(inputfile1));
+    byte[] costBytes = Files.readAllBytes(Paths.get(inputfile2));
+    String[] salaryHeader = readHeader(salaryBytes);
+
+    ForkJoinTask<SalaryChunk> salaryTask =
+            pool.submit(new SalaryTask(salaryBytes, nextLine(salaryBytes, 0, salaryBytes.length), salaryBytes.length));
+    ForkJoinTask<CostChunk> costTask =
+            pool.submit(new CostTask(costBytes, nextLine(costBytes, 0, costBytes.length), costBytes.length));
+
+    SalaryChunk salaries = salaryTask.join();
+    CostChunk costs = costTask.join();
+    pool.shutdown();
+    double parseMillis = (System.nanoTime() - startNanos) / 1e6;
+
+    // Every yearly salary statistic per country, kept for the binary snapshot
+    SalaryTable.Builder salaryTable = new SalaryTable.Builder();
+
+    try (CSVWriter writer = new CSVWriter(new FileWriter(outputfile1))) {
+      if (salaryHeader.length > 1) {
+        // Rename the second column (index 1) to "YearlySalary"
+        salaryHeader[1] = "YearlySalary";
+        writer.writeNext(salaryHeader);
+      }
+      for (int i = 0; i < salaries.rows.size(); i++) {
+        String[] row = salaries.rows.get(i);
+        writer.writeNext(row);
+        salaryTable.add(row[0], salaries.yearly.get(i));
       }
-    } catch (IOException | CsvValidationException e) {
-      e.printStackTrace();
     }
 
     // Now compute average for each state and write to a new CSV
+    Map<String, Double> stateCostMap = new HashMap<>();
     try (CSVWriter writer = new CSVWriter(new FileWriter(outputfile2))) {
       // Write header
       writer.writeNext(new String[]{"State", "AverageCost"});
 
-      for (Map.Entry<String, Accumulator> entry : stateMap.entrySet()) {
+      for (Map.Entry<String, Accumulator> entry : costs.totals.entrySet()) {
         String state = entry.getKey();
         double avgCost = entry.getValue().getAverage();
+        stateCostMap.put(state, avgCost);
 
         // Convert to string row
         String[] outRow = { state, String.valueOf(avgCost) };
         writer.writeNext(outRow);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
     }
 
-    System.out.println("Aggregation complete! Check " + outputfile2 + " for results.");
+    // The server only boots from the snapshot while the files it would otherwise read still match
+    List<BinarySnapshot.Source> sources = List.of(
+            BinarySnapshot.Source.of("salary_data.csv", salaryBytes),
+            BinarySnapshot.Source.of("cost_of_living_in_the_us_updated.csv", costBytes),
+            BinarySnapshot.Source.of("clean_cost_of_living_in_the_us_updated.csv", Files.readAllBytes(Paths.get(outputfile2))));
+    BinarySnapshot.write(Paths.get(outputfile3),
+            new BinarySnapshot.Contents(salaryTable.build(), stateCostMap, costs.columns, sources));
+
+    System.out.printf("✅ Parsed %d salary rows and %d cost rows (%d and %d malformed rows skipped) on %d threads in %.1f ms%n",
+            salaries.rows.size(), costs.rows, salaries.skipped, costs.skipped, threads, parseMillis);
+    System.out.println("Conversion complete! Check " + outputDir.toAbsolutePath() + " for results.");
   }
 
 }
-
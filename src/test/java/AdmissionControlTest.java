@@ -0,0 +1,22 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdmissionControlTest {
+
+  @Test
+  void clientIsTakenFromTheRightOfXForwardedFor() {
+    // The client sent "1.1.1.1, 2.2.2.2" itself; the one proxy appended the real address
+    assertEquals("9.9.9.9", AdmissionControl.forwardedClient("1.1.1.1, 2.2.2.2, 9.9.9.9", 1, "10.0.0.1"));
+    assertEquals("2.2.2.2", AdmissionControl.forwardedClient("1.1.1.1, 2.2.2.2, 9.9.9.9", 2, "10.0.0.1"));
+    assertEquals("9.9.9.9", AdmissionControl.forwardedClient(" 9.9.9.9 ", 1, "10.0.0.1"));
+  }
+
+  @Test
+  void fewerEntriesThanHopsOrAnEmptyEntryFallBack() {
+    assertEquals("9.9.9.9", AdmissionControl.forwardedClient("9.9.9.9", 3, "10.0.0.1"));
+    assertEquals("10.0.0.1", AdmissionControl.forwardedClient(null, 1, "10.0.0.1"));
+    assertEquals("10.0.0.1", AdmissionControl.forwardedClient("1.1.1.1, ", 1, "10.0.0.1"));
+    assertEquals("10.0.0.1", AdmissionControl.forwardedClient("", 1, "10.0.0.1"));
+  }
+}
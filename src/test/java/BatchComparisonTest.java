@@ -0,0 +1,48 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchComparisonTest {
+
+  private final ComparisonEngine engine = ComparisonEngine.build(
+          SalaryTable.ofSingle(SalaryStatistic.MEDIAN, Map.of("Canada", 50000.0, "Japan", 40000.0)),
+          Map.of("TX", 40000.0, "CA", 60000.0),
+          Map.of("TX", List.of(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0)), Map.of());
+
+  private JsonObject json(BatchComparison batch) throws IOException {
+    StringWriter out = new StringWriter();
+    batch.writeJson(out);
+    return JsonParser.parseString(out.toString()).getAsJsonObject();
+  }
+
+  @Test
+  void duplicateNamesAreUsedOnce() throws IOException {
+    BatchComparison batch = BatchComparison.of(engine, SalaryStatistic.MEDIAN,
+            List.of("TX", "tx", " TX ", "ZZ", "ZZ"), List.of("Canada", "CANADA", "Nowhere", "Nowhere"), 10);
+    assertEquals(1, batch.cellCount());
+    JsonObject json = json(batch);
+    assertEquals("[\"TX\"]", json.get("states").toString());
+    assertEquals("[\"Canada\"]", json.get("nationalities").toString());
+    assertEquals(1, json.getAsJsonObject("costBreakdown").size());
+    assertEquals("{\"states\":[\"ZZ\"],\"nationalities\":[\"Nowhere\"]}", json.get("notFound").toString());
+  }
+
+  @Test
+  void listsLongerThanTheMaximumAreRejected() {
+    List<String> tooMany = Collections.nCopies(11, "TX");
+    assertThrows(IllegalArgumentException.class,
+            () -> BatchComparison.of(engine, SalaryStatistic.MEDIAN, tooMany, "all", 10));
+    assertThrows(IllegalArgumentException.class,
+            () -> BatchComparison.of(engine, SalaryStatistic.MEDIAN, "all", tooMany, 10));
+    assertEquals(4, BatchComparison.of(engine, SalaryStatistic.MEDIAN, "all", "all", 1).cellCount());
+  }
+}
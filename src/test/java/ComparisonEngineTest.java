@@ -0,0 +1,26 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ComparisonEngineTest {
+
+  @Test
+  void familyNamesFromTheCsvAreEscaped() {
+    String family = "2p\"1c\\";
+    CostStats stats = new CostStats();
+    stats.add(new double[]{1, 2, 3, 4, 5, 6, 7});
+    ComparisonEngine engine = ComparisonEngine.build(
+            SalaryTable.ofSingle(SalaryStatistic.MEDIAN, Map.of("Canada", 50000.0)),
+            Map.of("TX", 40000.0), Map.of(), Map.of("TX", Map.of(family, stats)));
+
+    String json = engine.toJson(SalaryStatistic.MEDIAN, engine.stateId("TX"), engine.countryId("Canada"),
+            engine.familyId(family));
+    JsonObject parsed = JsonParser.parseString(json).getAsJsonObject();
+    assertEquals(family, parsed.get("family").getAsString());
+    assertEquals(7, parsed.getAsJsonArray("costBreakdown").size());
+  }
+}
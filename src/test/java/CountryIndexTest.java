@@ -0,0 +1,50 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CountryIndexTest {
+
+  private final CountryIndex index = CountryIndex.build(new String[]{"Canada", "Cambodia", "United Kingdom"});
+
+  @Test
+  void suggestReturnsNothingForZeroOrNegativeLimit() {
+    assertEquals(List.of(), index.suggest("ca", 0));
+    assertEquals(List.of(), index.suggest("ca", -5));
+  }
+
+  @Test
+  void suggestStopsAtLimit() {
+    assertEquals(List.of("Cambodia"), index.suggest("ca", 1));
+    assertEquals(List.of("Cambodia", "Canada"), index.suggest("ca", 10));
+    assertEquals(List.of("United Kingdom"), index.suggest("kingdom", 10));
+  }
+
+  // Names go through CsvParser like the salary table's, so its trimming is exercised too
+  private static CountryIndex loaded(String csv) throws IOException {
+    List<String> names = new ArrayList<>();
+    CsvParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), row -> {
+      if (row.number() > 0) names.add(row.getString(0));
+    });
+    return CountryIndex.build(names.toArray(new String[0]));
+  }
+
+  @Test
+  void lookupFoldsCaseAccentsAndApostrophes() throws IOException {
+    CountryIndex loaded = loaded("country,salary\nCôte d'Ivoire,1\n Åland Islands ,2\nSão Tomé and Príncipe,3\n");
+    assertEquals(0, loaded.lookup("côte d'ivoire"));
+    assertEquals(0, loaded.lookup("COTE D’IVOIRE"));
+    assertEquals(0, loaded.lookup("cote divoire"));
+    assertEquals(1, loaded.lookup("aland islands"));
+    assertEquals(1, loaded.lookup("ÅLAND  ISLANDS"));
+    assertEquals(2, loaded.lookup("sao tome and principe"));
+    assertEquals(-1, loaded.lookup("land islands"));
+    assertEquals(List.of("Åland Islands"), loaded.suggest("ala", 10));
+    assertEquals(List.of("São Tomé and Príncipe"), loaded.suggest("TOME", 10));
+  }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvParserTest {
+
+  private static List<List<String>> rows(String csv) throws IOException {
+    List<List<String>> rows = new ArrayList<>();
+    CsvParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), row -> {
+      List<String> fields = new ArrayList<>();
+      for (int i = 0; i < row.fieldCount(); i++) fields.add(row.getString(i));
+      rows.add(fields);
+    });
+    return rows;
+  }
+
+  @Test
+  void fieldPastTheEndOfAShortRowThrows() throws IOException {
+    List<String> errors = new ArrayList<>();
+    CsvParser.parse(new ByteArrayInputStream("a,b,c,d\nx\n".getBytes(StandardCharsets.UTF_8)), row -> {
+      if (row.number() == 1) {
+        assertEquals(1, row.fieldCount());
+        assertEquals("x", row.getString(0));
+        errors.add(assertThrows(IndexOutOfBoundsException.class, () -> row.getString(2)).getMessage());
+        assertThrows(IndexOutOfBoundsException.class, () -> row.getDouble(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> row.isEmpty(1));
+      }
+    });
+    assertEquals(1, errors.size());
+  }
+
+  @Test
+  void multibyteCharactersAtTheEdgesAreKept() throws IOException {
+    assertEquals(List.of(List.of("São Tomé", "Åland", "Côte d’Ivoire", "日本")),
+            rows(" São Tomé ,Åland,\tCôte d’Ivoire\t,日本\n"));
+  }
+
+  @Test
+  void quotedFieldsKeepCommasAndEscapedQuotes() throws IOException {
+    assertEquals(List.of(
+            List.of("Korea, Republic of", "say \"hi\"", ""),
+            List.of("\"", "a\nb", "x")),
+            rows("\"Korea, Republic of\",\"say \"\"hi\"\"\",\"\"\n\"\"\"\",\"a\nb\",x\n"));
+  }
+
+  @Test
+  void crlfAndBlankLinesAreIgnored() throws IOException {
+    assertEquals(List.of(List.of("a", "b"), List.of("1", "2"), List.of("3", "4")),
+            rows("a,b\r\n\r\n1,2\r\n3,4"));
+  }
+
+  @Test
+  void numbersParseLikeTheJdk() throws IOException {
+    List<Double> values = new ArrayList<>();
+    CsvParser.parse(new ByteArrayInputStream(" 12.5 ,-0.1,1e3,\"$1,234.50\"\n".getBytes(StandardCharsets.UTF_8)), row -> {
+      values.add(row.getDouble(0));
+      values.add(row.getDouble(1));
+      values.add(row.getDouble(2));
+      values.add(row.getLenientDouble(3));
+    });
+    assertEquals(List.of(12.5, -0.1, 1000.0, 1234.5), values);
+  }
+
+  @Test
+  void parseFastRoundsLikeParseDouble() {
+    Random random = new Random(42);
+    for (int n = 0; n < 200_000; n++) {
+      String text = switch (n % 4) {
+        case 0 -> Long.toString(random.nextLong() & ((1L << 53) - 1)) + "." + random.nextInt(1000);
+        case 1 -> String.format(java.util.Locale.ROOT, "%.2f", random.nextDouble() * 100_000);
+        case 2 -> "0." + String.format("%015d", random.nextLong() & 0x7FFFFFFFFFFFL);
+        default -> Integer.toString(random.nextInt(1_000_000)) + "." + Integer.toString(random.nextInt(1_000_000));
+      };
+      byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+      double fast = CsvParser.parseFast(bytes, 0, bytes.length, false);
+      assertTrue(Double.isNaN(fast) || fast == Double.parseDouble(text), text);
+    }
+    byte[] tooLong = "12345678901234567890.5".getBytes(StandardCharsets.US_ASCII);
+    assertTrue(Double.isNaN(CsvParser.parseFast(tooLong, 0, tooLong.length, false)));
+  }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HtmlTemplateTest {
+
+  private static String render(HtmlTemplate template, Consumer<HtmlTemplate.Buffer> fill) {
+    HtmlTemplate.Buffer buffer = HtmlTemplate.Buffer.acquire();
+    try {
+      fill.accept(buffer.begin(template));
+      return buffer.end().toString();
+    } finally {
+      buffer.release();
+    }
+  }
+
+  @Test
+  void textSlotsAreEscaped() {
+    HtmlTemplate template = HtmlTemplate.compile("<p>{{name}}</p>");
+    assertEquals("<p>&lt;script&gt;&amp;&quot;&#39;</p>", render(template, b -> b.text("<script>&\"'")));
+    assertEquals("<p>Côte d’Ivoire 😀</p>", render(template, b -> b.text("Côte d’Ivoire 😀")));
+  }
+
+  @Test
+  void htmlSlotsAreCopiedAsIs() {
+    HtmlTemplate template = HtmlTemplate.compile("<div>{{body:html}}</div>");
+    assertEquals("<div><b>é</b></div>", render(template, b -> b.html("<b>é</b>")));
+  }
+
+  @Test
+  void fixedMatchesFormatOnTies() {
+    HtmlTemplate template = HtmlTemplate.compile("{{value:fixed}}");
+    double[] values = {1.005, 2.675, 0.125, -0.0, -1.005, 0.0, 0.994999, 1e7 + 0.005, 123456.785,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e20};
+    for (double value : values) {
+      assertEquals(String.format(Locale.ROOT, "%.2f", value), render(template, b -> b.fixed(value)),
+              String.valueOf(value));
+    }
+  }
+
+  @Test
+  void numberWritesLikeDoubleToString() {
+    HtmlTemplate template = HtmlTemplate.compile("${{value:number}}");
+    assertEquals("$64795.39835196859", render(template, b -> b.number(64795.39835196859)));
+  }
+
+  @Test
+  void slotsMustBeFilledInOrderWithTheirType() {
+    HtmlTemplate template = HtmlTemplate.compile("{{a}} {{b:fixed}}");
+    assertThrows(IllegalStateException.class, () -> render(template, b -> b.fixed(1)));
+    assertThrows(IllegalStateException.class, () -> render(template, b -> b.text("x")));
+  }
+}